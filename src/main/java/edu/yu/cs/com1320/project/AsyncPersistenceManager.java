@@ -0,0 +1,22 @@
+package edu.yu.cs.com1320.project;
+
+import java.util.concurrent.CompletableFuture;
+
+public interface AsyncPersistenceManager<Key,Value> {
+
+    /**
+     * write the value to disk without blocking the caller
+     * @param key
+     * @param val
+     * @return future which completes once the value has been written, or completes exceptionally if it could not be
+     */
+    CompletableFuture<Void> serializeAsync (Key key, Value val);
+
+    /**
+     * read the value from disk without blocking the caller. Unlike PersistenceManager.deserialize, the file is always left on disk;
+     * the caller deletes it (if it wants to) once the value is back in memory
+     * @param key
+     * @return future of the value, or of null if there is no file for the key
+     */
+    CompletableFuture<Value> deserializeAsync (Key key);
+}
@@ -1,5 +1,7 @@
 package edu.yu.cs.com1320.project;
 
+import java.util.List;
+
 public interface BTree<Key extends Comparable<Key>, Value> {
     
     Value get (Key k);
@@ -7,6 +9,64 @@ public interface BTree<Key extends Comparable<Key>, Value> {
     Value put (Key k, Value v);
 
     void moveToDisk (Key k) throws Exception;
+
+    /**
+     * @param k
+     * @return true if the value stored at k has been moved to disk, i.e. calling get will bring it back into memory
+     */
+    boolean isOnDisk (Key k);
+
+    /**
+     * Adds a key whose value is already on disk (e.g. when loading an index), without reading the value
+     * @param k
+     */
+    void putOnDisk (Key k);
+
+    /**
+     * @param k
+     * @return a number which changes whenever the value stored at k is changed or moved to or from disk, or -1 if k does not exist
+     */
+    long getVersion (Key k);
+
+    /**
+     * Brings a value which the caller read from disk itself back into memory, as get would have, unless k is no longer on disk
+     * or has changed since the caller started reading
+     * @param k
+     * @param v the value read from disk
+     * @param version what getVersion returned for k when the caller started reading
+     * @return true if the value was put, false if k already has a value in memory, has a different version or no longer exists
+     */
+    boolean putLoaded (Key k, Value v, long version);
+
+    /**
+     * Writes the value stored at k to disk but keeps it in memory (no write is needed if the disk already has it).
+     * The PersistenceManager may finish the write later, so the value is only taken to be on disk once the caller confirms it with setWritten.
+     * @param k
+     * @throws Exception
+     */
+    void flush (Key k) throws Exception;
+
+    /**
+     * Records that the write of the value stored at k has finished, so moving it to disk needs no write, unless it has changed since
+     * @param k
+     * @param version what getVersion returned for k once the write was started
+     */
+    void setWritten (Key k, long version);
+
+    /**
+     * Puts a value back into memory whose write, started by moveToDisk, failed, unless k has changed since.
+     * The value is written again the next time it is moved to disk.
+     * @param k
+     * @param v the value which was being written
+     * @param version what getVersion returned for k once moveToDisk returned
+     * @return true if the value was put
+     */
+    boolean putUnwritten (Key k, Value v, long version);
+
+    /**
+     * @return every key which has a value, in memory or on disk, in ascending order
+     */
+    List<Key> keys ();
     
     void setPersistenceManager (PersistenceManager<Key, Value> pm);
 }
\ No newline at end of file
@@ -15,4 +15,11 @@ public interface PersistenceManager<Key,Value> {
      * @throws IOException
      */
     boolean delete (Key key) throws IOException;
+
+    /**
+     * @return true if deserialize leaves the file on disk, so that a value which is read and not changed does not have to be written again
+     */
+    default boolean keepsFilesOnLoad () {
+        return false;
+    }
 }
\ No newline at end of file
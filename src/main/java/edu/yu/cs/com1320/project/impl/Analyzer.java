@@ -0,0 +1,48 @@
+package edu.yu.cs.com1320.project.impl;
+
+/**
+ * The one place that decides what a word is, for the Documents' words (see Tokenizer) and the keywords searched for alike:
+ * characters other than letters, digits and spaces are dropped, and letters are upper-cased. Works a character at a time,
+ * without regular expressions or intermediate strings.
+ */
+class Analyzer {
+
+    static final Analyzer DEFAULT = new Analyzer();
+    //returned by normalize for a character which is dropped
+    static final char DROPPED = '\0';
+
+    /**
+     * @param c
+     * @return the upper-cased letter, the digit or the space, or DROPPED for any other character
+     */
+    char normalize (char c) {
+        if ((c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == ' ') {
+            return c;
+        }
+        if (c >= 'a' && c <= 'z') {
+            return (char)(c - 'a' + 'A');
+        }
+        return DROPPED;
+    }
+
+    /**
+     * @param string
+     * @return the string with every character normalized and the dropped ones removed; the string itself if that changes nothing
+     */
+    String normalize (String string) {
+        char[] chars = null;
+        int length = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char c = this.normalize(string.charAt(i));
+            if (chars == null && c != string.charAt(i)) {
+                chars = new char[string.length()];
+                string.getChars(0, i, chars, 0);
+                length = i;
+            }
+            if (chars != null && c != DROPPED) {
+                chars[length++] = c;
+            }
+        }
+        return chars == null ? string : new String(chars, 0, length);
+    }
+}
@@ -0,0 +1,38 @@
+package edu.yu.cs.com1320.project.impl;
+
+import edu.yu.cs.com1320.project.Document;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous reads from a DocumentStoreImpl. A Document which is on disk is read and deserialized on the DocumentPersistenceManager's
+ * I/O threads (see DocumentPersistenceManager.setIoExecutor), so many cold reads can be in flight at once instead of waiting behind each other.
+ * A Document which is in memory is returned right away. Either way the Document counts as used, as with DocumentStore.getDocument.
+ */
+public class AsyncDocumentStore {
+
+    private DocumentStoreImpl store;
+
+    /**
+     * Constructor for AsyncDocumentStore
+     * @param store the store to read from
+     */
+    public AsyncDocumentStore (DocumentStoreImpl store) {
+        if (store == null) {
+            throw new IllegalArgumentException("DocumentStore must not be null.");
+        }
+        this.store = store;
+    }
+
+    /**
+     * @param uri the unique identifier of the Document to get
+     * @return future of the given Document, or of null if there is none
+     */
+    public CompletableFuture<Document> getDocumentAsync (URI uri) {
+        if (uri == null) {
+            throw new IllegalArgumentException("URI must not be null.");
+        }
+        return this.store.getDocumentAsync(uri);
+    }
+}
@@ -4,6 +4,9 @@ import edu.yu.cs.com1320.project.BTree;
 import edu.yu.cs.com1320.project.PersistenceManager;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
 
 //Code is heavily based on Robert Sedgewick and Kevin Wayne's implementation of BTree, with edits from Judah Diament
 
@@ -48,6 +51,9 @@ public class BTreeImpl<Key extends Comparable<Key>, Value> implements BTree<Key,
         private Comparable key;
         private Object val;
         private Node child;
+        private boolean onDisk; //val was moved to disk (a null val without this flag means there is no value)
+        private boolean persisted; //the file on disk holds the same val, so moving it to disk needs no write
+        private long version; //bumped whenever val changes or moves to or from disk, so a value read from disk can be checked against it
 
         private Entry (Comparable key, Object val, Node child) {
             this.key = key;
@@ -65,6 +71,7 @@ public class BTreeImpl<Key extends Comparable<Key>, Value> implements BTree<Key,
      * @param key the key
      * @return the value associated with the given key if the key is in the symbol table and null if the key is not in the symbol table
      * @throws IllegalArgumentException if key is null
+     * @throws UncheckedIOException if the value is on disk and cannot be read
      */
     @Override
     public Value get(Key k) {
@@ -73,19 +80,48 @@ public class BTreeImpl<Key extends Comparable<Key>, Value> implements BTree<Key,
         }
         Entry entry = this.get(this.root, k, this.height);
         if(entry != null) {
-            if (entry.val == null) {
-                try {
-                    entry.val = this.pm.deserialize(k);
-                }
-                catch (IOException e) {
-                    e.printStackTrace();
-                }
+            if (entry.onDisk) {
+                entry.val = this.deserialize(entry, k);
             }
             return (Value)entry.val;
         }
         return null;
     }
 
+    /**
+     * Brings the value of an entry which was moved to disk back into memory.
+     * @param entry
+     * @param k
+     * @return the deserialized value
+     * @throws UncheckedIOException if the value cannot be read (e.g. its file is corrupt); the entry is then left on disk
+     */
+    private Object deserialize (Entry entry, Key k) {
+        Object val;
+        try {
+            val = this.pm.deserialize(k);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        entry.onDisk = false;
+        entry.persisted = this.pm.keepsFilesOnLoad();
+        entry.version++;
+        return val;
+    }
+
+    /**
+     * @param k the key
+     * @return true if the value of the given key has been moved to disk
+     */
+    @Override
+    public boolean isOnDisk (Key k) {
+        if (k == null) {
+            throw new IllegalArgumentException("Key must not be null.");
+        }
+        Entry entry = this.get(this.root, k, this.height);
+        return entry != null && entry.onDisk;
+    }
+
     private Entry get(Node currentNode, Key key, int height) {
         Entry[] entries = currentNode.entries;
         //current node is external (i.e. height == 0)
@@ -131,15 +167,15 @@ public class BTreeImpl<Key extends Comparable<Key>, Value> implements BTree<Key,
         Entry alreadyThere = this.get(this.root, k, this.height);
         if(alreadyThere != null) {
             Value oldValue = (Value)alreadyThere.val;
-            if (oldValue == null) {
-                try {
-                    oldValue = this.pm.deserialize(k);
-                }
-                catch (IOException e) {
-                    e.printStackTrace();
-                }
+            if (alreadyThere.onDisk) {
+                oldValue = (Value)this.deserialize(alreadyThere, k);
             }
             alreadyThere.val = v;
+            alreadyThere.persisted = false;
+            alreadyThere.version++;
+            if (v == null && oldValue != null) {
+                this.deleteFromDisk(k);
+            }
             return oldValue;
         }
         Node newNode = this.put(this.root, k, v, this.height);
@@ -228,8 +264,170 @@ public class BTreeImpl<Key extends Comparable<Key>, Value> implements BTree<Key,
         if (k == null) {
             throw new IllegalArgumentException("Key must not be null.");
         }
-        this.pm.serialize(k, this.get(k));
-        this.put(k, null);
+        Entry entry = this.get(this.root, k, this.height);
+        if (entry == null || entry.onDisk || entry.val == null) {
+            return;
+        }
+        //a clean value is already on disk and is just dropped from memory
+        if (!entry.persisted) {
+            this.pm.serialize(k, (Value)entry.val);
+        }
+        entry.val = null;
+        entry.onDisk = true;
+        entry.persisted = true;
+        entry.version++;
+    }
+
+    /**
+     * Adds a key whose value is already on disk, without reading the value
+     * @param k the key
+     */
+    @Override
+    public void putOnDisk (Key k) {
+        if (k == null) {
+            throw new IllegalArgumentException("Key must not be null.");
+        }
+        Entry entry = this.get(this.root, k, this.height);
+        if (entry == null) {
+            this.put(k, null);
+            entry = this.get(this.root, k, this.height);
+        }
+        entry.val = null;
+        entry.onDisk = true;
+        entry.persisted = true;
+        entry.version++;
+    }
+
+    /**
+     * @param k the key
+     * @return a number which changes whenever the value of the given key is changed or moved to or from disk, or -1 if there is no such key
+     */
+    @Override
+    public long getVersion (Key k) {
+        if (k == null) {
+            throw new IllegalArgumentException("Key must not be null.");
+        }
+        Entry entry = this.get(this.root, k, this.height);
+        return entry == null ? -1 : entry.version;
+    }
+
+    /**
+     * Brings a value which the caller read from disk back into memory, unless k is no longer on disk or its version has changed
+     * (the value may then have been replaced and moved to disk again, so what was read is stale and the file is not the one it came from)
+     * @param k the key
+     * @param v the value read from disk
+     * @param version the version of k when the read started
+     * @return true if the value was put
+     */
+    @Override
+    public boolean putLoaded (Key k, Value v, long version) {
+        if (k == null || v == null) {
+            throw new IllegalArgumentException("Key and value must not be null.");
+        }
+        Entry entry = this.get(this.root, k, this.height);
+        if (entry == null || !entry.onDisk || entry.version != version) {
+            return false;
+        }
+        entry.val = v;
+        entry.onDisk = false;
+        entry.persisted = this.pm.keepsFilesOnLoad();
+        entry.version++;
+        if (!entry.persisted) {
+            this.deleteFromDisk(k);
+        }
+        return true;
+    }
+
+    /**
+     * Writes the value stored at k to disk but keeps it in memory (no write is needed if the disk already has it)
+     * @param k the key
+     * @throws Exception
+     */
+    @Override
+    public void flush (Key k) throws Exception {
+        if (k == null) {
+            throw new IllegalArgumentException("Key must not be null.");
+        }
+        Entry entry = this.get(this.root, k, this.height);
+        if (entry != null && !entry.onDisk && entry.val != null && !entry.persisted) {
+            this.pm.serialize(k, (Value)entry.val);
+        }
+    }
+
+    /**
+     * Marks the value stored at k as being on disk once the write flush started has finished, unless the value has changed since
+     * @param k the key
+     * @param version the version of k once the write was started
+     */
+    @Override
+    public void setWritten (Key k, long version) {
+        if (k == null) {
+            throw new IllegalArgumentException("Key must not be null.");
+        }
+        Entry entry = this.get(this.root, k, this.height);
+        if (entry != null && !entry.onDisk && entry.val != null && entry.version == version) {
+            entry.persisted = true;
+        }
+    }
+
+    /**
+     * Puts a value back into memory after the write moveToDisk started for it failed, unless k has changed since.
+     * It is not marked as persisted, so it is written again the next time it is moved to disk.
+     * @param k the key
+     * @param v the value which was being written
+     * @param version the version of k once moveToDisk returned
+     * @return true if the value was put
+     */
+    @Override
+    public boolean putUnwritten (Key k, Value v, long version) {
+        if (k == null || v == null) {
+            throw new IllegalArgumentException("Key and value must not be null.");
+        }
+        Entry entry = this.get(this.root, k, this.height);
+        if (entry == null || !entry.onDisk || entry.version != version) {
+            return false;
+        }
+        entry.val = v;
+        entry.onDisk = false;
+        entry.persisted = false;
+        entry.version++;
+        return true;
+    }
+
+    /**
+     * @return every key which has a value, in memory or on disk, in ascending order
+     */
+    @Override
+    public List<Key> keys () {
+        List<Key> keys = new ArrayList<>(this.size);
+        Node node = this.root;
+        for (int h = this.height; h > 0; h--) {
+            node = node.entries[0].child;
+        }
+        for (; node != null; node = node.getNext()) {
+            for (int j = 0; j < node.entryCount; j++) {
+                if (node.entries[j].val != null || node.entries[j].onDisk) {
+                    keys.add((Key)node.entries[j].key);
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Deletes the file of a value which was removed from the tree
+     * @param k
+     */
+    private void deleteFromDisk (Key k) {
+        if (this.pm == null) {
+            return;
+        }
+        try {
+            this.pm.delete(k);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     @Override
@@ -0,0 +1,33 @@
+package edu.yu.cs.com1320.project.impl;
+
+import java.io.IOException;
+
+/**
+ * Writes checkpoints of a DocumentStoreImpl. A checkpoint writes every Document in memory to disk (keeping it in memory),
+ * writes a snapshot of the index to the base directory, and empties the store's WriteAheadLog.
+ * A DocumentStoreImpl constructed on the same base directory loads the snapshot (and replays the log on top of it, if it has one)
+ * instead of rebuilding the index from the Documents. Undo cannot reach past a checkpoint.
+ */
+public class Checkpointer {
+
+    private DocumentStoreImpl store;
+
+    /**
+     * Constructor for Checkpointer
+     * @param store the store to checkpoint
+     */
+    public Checkpointer (DocumentStoreImpl store) {
+        if (store == null) {
+            throw new IllegalArgumentException("DocumentStore must not be null.");
+        }
+        this.store = store;
+    }
+
+    /**
+     * Writes a checkpoint of the store.
+     * @throws IOException if the checkpoint cannot be written; the previous checkpoint and the log are then still intact
+     */
+    public void checkpoint () throws IOException {
+        this.store.checkpoint();
+    }
+}
@@ -0,0 +1,39 @@
+package edu.yu.cs.com1320.project.impl;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Thrown when the file of a Document fails its checksum, is truncated (e.g. by a crash in the middle of a write), or cannot be parsed.
+ */
+public class CorruptDocumentException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private File file;
+
+    /**
+     * @param file the file which is corrupt
+     * @param message what is wrong with it
+     */
+    public CorruptDocumentException (File file, String message) {
+        this(file, message, null);
+    }
+
+    /**
+     * @param file the file which is corrupt
+     * @param message what is wrong with it
+     * @param cause
+     */
+    public CorruptDocumentException (File file, String message, Throwable cause) {
+        super(message + " (" + file + ")", cause);
+        this.file = file;
+    }
+
+    /**
+     * @return the file which is corrupt
+     */
+    public File getFile () {
+        return this.file;
+    }
+}
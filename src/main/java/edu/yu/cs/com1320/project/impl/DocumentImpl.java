@@ -2,22 +2,36 @@ package edu.yu.cs.com1320.project.impl;
 
 import edu.yu.cs.com1320.project.Document;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Map;
-import java.util.HashMap;
 import java.util.Set;
-import java.util.HashSet;
-import java.util.List;
-import java.util.ArrayList;
 
 public class DocumentImpl implements Document {
     
     private URI uri;
     private String txt;
     private byte[] binaryData;
-    private Map<String, Integer> wordToCount;
+    private TermCounts terms;
+    //view of the words of terms, made on the first call to getWords
+    private transient Set<String> words;
     private long lastUseTime;
+    //while not null, the txt or binaryData is held here, outside the Java heap, instead
+    private transient ByteBuffer offHeap;
+    private transient int offHeapLength;
+    private transient boolean offHeapTxt;
+    private transient int byteCount; //size of the txt in UTF-8 or of the binaryData, set by the constructors; 0 for a blob
+    private transient int offHeapHash; //hashCode, computed before the contents moved off the heap so they need not be read back for it
+    //for binary data put in blob mode: the file holding the binary data, which is never read into memory unless it is asked for
+    private String blob;
+    private long blobLength;
+    private int blobHash;
 
     /**
      * constructor for txt document
@@ -30,11 +44,25 @@ public class DocumentImpl implements Document {
         }
         this.uri = uri;
         this.txt = txt;
-        this.wordToCount = new HashMap<>();
-        for (String word : this.getWordsList()) {
-            int count = this.wordToCount.get(word) == null ? 0 : this.wordToCount.get(word);
-            this.wordToCount.put(word, count+1);
+        this.byteCount = txt.getBytes(StandardCharsets.UTF_8).length;
+        this.terms = new Tokenizer().add(txt).getTermCounts();
+        this.lastUseTime = System.nanoTime();
+    }
+
+    /**
+     * constructor for txt document whose words were already counted as the text was read (see Tokenizer)
+     * @param uri
+     * @param txt
+     * @param terms
+     */
+    DocumentImpl (URI uri, String txt, TermCounts terms) {
+        if (uri == null || uri.toString().isEmpty() || txt == null || txt.isEmpty() || terms == null) {
+            throw new IllegalArgumentException("Argument is either null or blank.");
         }
+        this.uri = uri;
+        this.txt = txt;
+        this.byteCount = txt.getBytes(StandardCharsets.UTF_8).length;
+        this.terms = terms;
         this.lastUseTime = System.nanoTime();
     }
 
@@ -49,7 +77,27 @@ public class DocumentImpl implements Document {
         }
         this.uri = uri;
         this.binaryData = binaryData;
-        this.wordToCount = new HashMap<>();
+        this.byteCount = binaryData.length;
+        this.terms = TermCounts.EMPTY;
+        this.lastUseTime = System.nanoTime();
+    }
+
+    /**
+     * constructor for binary data document whose data is in a blob file
+     * @param uri
+     * @param blob file holding the binary data
+     * @param length length of the binary data
+     * @param dataHash Arrays.hashCode of the binary data
+     */
+    DocumentImpl (URI uri, File blob, long length, int dataHash) {
+        if (uri == null || uri.toString().isEmpty() || blob == null || length == 0) {
+            throw new IllegalArgumentException("Argument is either null or blank.");
+        }
+        this.uri = uri;
+        this.blob = blob.getAbsolutePath();
+        this.blobLength = length;
+        this.blobHash = dataHash;
+        this.terms = TermCounts.EMPTY;
         this.lastUseTime = System.nanoTime();
     }
 
@@ -58,6 +106,9 @@ public class DocumentImpl implements Document {
      */
     @Override
     public String getDocumentTxt () {
+        if (this.offHeap != null && this.offHeapTxt) {
+            return new String(this.readOffHeap(), StandardCharsets.UTF_8);
+        }
         return this.txt;
     }
 
@@ -66,9 +117,100 @@ public class DocumentImpl implements Document {
      */
     @Override
     public byte[] getDocumentBinaryData () {
+        if (this.offHeap != null && !this.offHeapTxt) {
+            return this.readOffHeap();
+        }
+        if (this.blob != null) {
+            try {
+                return Files.readAllBytes(this.getBlobFile().toPath());
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
         return this.binaryData;
     }
 
+    /**
+     * @return true if the binary data is in a blob file
+     */
+    boolean isBlob () {
+        return this.blob != null;
+    }
+
+    /**
+     * @return the file holding the binary data, or null if this is not a blob
+     */
+    File getBlobFile () {
+        return this.blob == null ? null : new File(this.blob);
+    }
+
+    /**
+     * @return length of the binary data in the blob file
+     */
+    long getBlobLength () {
+        return this.blobLength;
+    }
+
+    /**
+     * @return Arrays.hashCode of the binary data in the blob file
+     */
+    int getBlobHash () {
+        return this.blobHash;
+    }
+
+    /**
+     * @return view of just the bytes of this document in its off-heap buffer
+     */
+    private ByteBuffer getOffHeapView () {
+        ByteBuffer view = this.offHeap.duplicate();
+        view.limit(view.position() + this.offHeapLength);
+        return view;
+    }
+
+    private byte[] readOffHeap () {
+        byte[] data = new byte[this.offHeapLength];
+        this.offHeap.duplicate().get(data);
+        return data;
+    }
+
+    /**
+     * Moves the txt or binaryData of this document into a buffer outside the Java heap; it is read back on every call to
+     * getDocumentTxt or getDocumentBinaryData. The buffer is freed once this document is no longer reachable.
+     * @param slabs allocator of the buffer
+     * @return false if the allocator is out of room, in which case the document is left as it was
+     */
+    boolean moveOffHeap (SlabAllocator slabs) {
+        if (this.offHeap != null) {
+            return true;
+        }
+        if (this.blob != null) {
+            return false;
+        }
+        byte[] data = this.txt != null ? this.txt.getBytes(StandardCharsets.UTF_8) : this.binaryData;
+        ByteBuffer buffer = slabs.allocate(data.length);
+        if (buffer == null) {
+            return false;
+        }
+        buffer.duplicate().put(data);
+        this.offHeapHash = this.hashCode();
+        this.offHeapLength = data.length;
+        this.offHeapTxt = this.txt != null;
+        this.offHeap = buffer;
+        this.txt = null;
+        this.binaryData = null;
+        slabs.freeWhenUnreachable(this, buffer);
+        return true;
+    }
+
+    /**
+     * @return size of the txt (in UTF-8) or of the binaryData, counted once when this document was created so it is never re-encoded or read back;
+     *         0 for a blob, whose data is not in memory
+     */
+    int getByteCount () {
+        return this.byteCount;
+    }
+
     /**
      * @return URI which uniquely identifies this document
      */
@@ -87,24 +229,19 @@ public class DocumentImpl implements Document {
         if (word == null) {
             throw new IllegalArgumentException("Word must not be null.");
         }
-        word = this.stringFormatter(word);
-        return (this.wordToCount.get(word) == null ? 0 : this.wordToCount.get(word));
+        word = Analyzer.DEFAULT.normalize(word);
+        return this.terms.get(word);
     }
 
     /**
-     * @return all the words that appear in the document
+     * @return all the words that appear in the document, as an unmodifiable view of the words counted when the document was created
      */
     @Override
     public Set<String> getWords () {
-        Set<String> wordSet = new HashSet<>();
-        String text = this.getDocumentTxt();
-        if (text == null) {
-            return wordSet;
+        if (this.words == null) {
+            this.words = this.terms.getWords();
         }
-        text = this.stringFormatter(text);
-        String[] words = text.trim().split("\\s+");
-        wordSet.addAll(Arrays.asList(words));
-        return wordSet;
+        return this.words;
     }
 
     /**
@@ -122,59 +259,61 @@ public class DocumentImpl implements Document {
     }
 
     /**
-     * @return a copy of the wordToCount map so it can be serialized
+     * @return a copy of the word counts as a map, so they can be serialized
      */
     @Override
     public Map<String,Integer> getWordMap () {
-        return this.wordToCount;
+        return this.terms.toMap();
     }
 
     /**
-     * Set the wordToCount Map during deserialization
+     * Set the word counts during deserialization
      * @param wordMap
      */
     @Override
     public void setWordMap (Map<String,Integer> wordMap) {
-        this.wordToCount = wordMap;
-    }
-
-    /**
-     * @return all the words that appear in the document (with repetitions)
-     */
-    private List<String> getWordsList () {
-        List<String> wordList = new ArrayList<>();
-        String text = this.getDocumentTxt();
-        if (text == null) {
-            return wordList;
+        if (wordMap == null) {
+            throw new IllegalArgumentException("Word map must not be null.");
         }
-        text = this.stringFormatter(text);
-        String[] words = text.trim().split("\\s+");
-        wordList.addAll(Arrays.asList(words));
-        return wordList;
+        this.terms = new TermCounts(new TermDictionary(), wordMap);
+        this.words = null;
     }
 
     /**
-     * formats given string to the appropriate form (only letters and numbers, all same case)
-     * @param string string to format
-     * @return formatted string
+     * Gives the words ids from the given dictionary instead (e.g. after the store's dictionary is vacuumed)
+     * @param dictionary
      */
-    private String stringFormatter (String string) {
-        string = string.replaceAll("[^A-Za-z0-9 ]", "");
-        string = string.toUpperCase();
-        return string;
+    void setTermDictionary (TermDictionary dictionary) {
+        this.terms = this.terms.withDictionary(dictionary);
+        this.words = null;
     }
 
     @Override
     public int hashCode () {
+        if (this.offHeap != null) {
+            return this.offHeapHash;
+        }
+        String text = this.getDocumentTxt();
         int result = uri.hashCode();
-        result = 31 * result + (txt != null ? txt.hashCode() : 0);
-        result = 31 * result + Arrays.hashCode(binaryData);
+        result = 31 * result + (text != null ? text.hashCode() : 0);
+        result = 31 * result + (this.blob != null ? this.blobHash : Arrays.hashCode(this.getDocumentBinaryData()));
         return result;
     }
 
+    /**
+     * Documents are equal if their hashCodes are; two Documents which are both off the heap must also have the same bytes there,
+     * which are compared in place rather than read back
+     */
     @Override
     public boolean equals (Object o) {
-        return this.hashCode() == o.hashCode();
+        if (o == null || this.hashCode() != o.hashCode()) {
+            return false;
+        }
+        if (this.offHeap != null && o instanceof DocumentImpl && ((DocumentImpl) o).offHeap != null) {
+            DocumentImpl other = (DocumentImpl) o;
+            return this.offHeapTxt == other.offHeapTxt && this.uri.equals(other.uri) && this.getOffHeapView().equals(other.getOffHeapView());
+        }
+        return true;
     }
 
     /**
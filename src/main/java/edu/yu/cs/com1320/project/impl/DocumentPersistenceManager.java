@@ -1,61 +1,1093 @@
 package edu.yu.cs.com1320.project.impl;
 
+import edu.yu.cs.com1320.project.AsyncPersistenceManager;
 import edu.yu.cs.com1320.project.Document;
 import edu.yu.cs.com1320.project.PersistenceManager;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Type;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
 
 /**
  * created by the DocumentStore and given to the BTree via a call to BTree.setPersistenceManager
  */
-public class DocumentPersistenceManager implements PersistenceManager<URI, Document> {
+public class DocumentPersistenceManager implements PersistenceManager<URI, Document>, AsyncPersistenceManager<URI, Document> {
 
-    private File dir;
+    private static final byte[] COMPRESSED_MAGIC = {'D', 'S', 'Z', '1'};
+    //every file starts with RECORD_HEADER and ends with the length of the payload between them, its CRC32C and RECORD_MAGIC.
+    //Files written before the header was added have only the trailer, and files written before checksums were added have neither
+    private static final byte[] RECORD_HEADER = {'D', 'S', 'R', '1'};
+    private static final byte[] RECORD_MAGIC = {'D', 'S', 'C', 'K'};
+    private static final int RECORD_TRAILER_SIZE = 8 + RECORD_MAGIC.length;
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int WARM_COMPRESSION_LEVEL = Deflater.BEST_SPEED; //the warm tier always deflates, whatever the files' compression level
+    private static final String BLOB_DIR = "blobs";
+    private static final int BLOB_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+    private static final String DICTIONARY_PREFIX = "compression-"; //each dictionary is saved as compression-<its Adler-32 in hex>.dict
+    private static final String DICTIONARY_SUFFIX = ".dict";
+    private static final String LEGACY_DICTIONARY_FILE = "compression.dict"; //the one dictionary saved before they were named by their Adler-32
+    private static final String STAGING_PREFIX = ".staging-";
+    private static final String DELETED_FILE = "deleted.list";
+    private static final int DEFAULT_IO_THREADS = 8;
+    private static final String LAYOUT_FILE = "layout";
+    private static final int HASH_DEPTH = 2; //levels of directories in the HASHED layout, each named by one byte of the hash
+    //leading bytes of binary formats which are already compressed and would not shrink any further
+    private static final byte[][] COMPRESSED_SIGNATURES = {
+        {(byte)0x1F, (byte)0x8B}, //gzip
+        {'P', 'K', 3, 4}, //zip, jar, docx, ...
+        {(byte)0x89, 'P', 'N', 'G'}, //png
+        {(byte)0xFF, (byte)0xD8, (byte)0xFF}, //jpeg
+        {'G', 'I', 'F', '8'}, //gif
+        {(byte)0x28, (byte)0xB5, (byte)0x2F, (byte)0xFD}, //zstd
+        {(byte)0xFD, '7', 'z', 'X', 'Z', 0}, //xz
+        {'7', 'z', (byte)0xBC, (byte)0xAF, (byte)0x27, (byte)0x1C}, //7z
+        {'B', 'Z', 'h'}, //bzip2
+        COMPRESSED_MAGIC
+    };
+
+    /**
+     * How the files of Documents are arranged under the base directory
+     */
+    public enum Layout {
+        /** each Document at authority/path.json, mirroring its URI */
+        DIRECT,
+        /** each Document named by the SHA-256 of its URI, two levels of 256 directories deep; the URI is kept inside the file */
+        HASHED
+    }
+
+    private File dir; //the first base directory, which also holds the dictionary, the layout and the store's snapshot
+    private File[] dirs; //Documents are striped across these by the hash of their URI
+    private Layout layout;
+    private int compressionLevel;
+    private int compressionThreshold;
+    private byte[] dictionary;
+    private Map<Integer, byte[]> dictionaries; //every dictionary read or set so far, by Adler-32
+    private boolean keepFilesOnLoad;
+    private WarmTier warm; //null if there is no warm tier
+    private SlabAllocator offHeap; //null if Documents are kept on the heap
+    private int blobThreshold;
+    private volatile TermDictionary termDictionary; //gives the words of the Documents read in their ids
+    private ExecutorService ioExecutor;
+    private ExecutorService[] stripeExecutors;
+    private Map<URI, CompletableFuture<Void>> pending; //the last write queued for each Document which may not have finished yet
+    private Map<URI, CompletableFuture<Void>> deferred; //while not null, serialize does not wait for its writes, and awaitWrites waits for these
+    private String staging; //while not null, writes go to the staging directory of this name in each base directory until they are committed
+    private Set<URI> staged;
+    private Set<URI> deleted;
 
     /**
      * Constructor for DocumentPersistenceManager
      * @param baseDir where to create the Base Directory, if null it will be set to user.dir
      */
     public DocumentPersistenceManager (File baseDir) {
-        if (baseDir == null) {
-            this.dir = new File(System.getProperty("user.dir"));
+        this(Collections.singletonList(baseDir == null ? new File(System.getProperty("user.dir")) : baseDir));
+    }
+
+    /**
+     * Constructor for DocumentPersistenceManager which stripes Documents across several base directories (e.g. one per disk) by the hash of their URI.
+     * Each directory gets its own I/O threads. The same directories must be given, in the same order, every time; migrate restripes the files otherwise.
+     * @param baseDirs the base directories; the first one also holds the dictionary, the layout and the store's snapshot
+     */
+    public DocumentPersistenceManager (List<File> baseDirs) {
+        if (baseDirs == null || baseDirs.isEmpty()) {
+            throw new IllegalArgumentException("Base directories must not be null or empty.");
         }
-        else {
-            this.dir = baseDir;
+        for (File baseDir : baseDirs) {
+            if (baseDir == null) {
+                throw new IllegalArgumentException("Base directory must not be null.");
+            }
+        }
+        this.dirs = baseDirs.toArray(new File[0]);
+        this.dir = this.dirs[0];
+        this.stripeExecutors = new ExecutorService[this.dirs.length];
+        this.compressionLevel = Deflater.NO_COMPRESSION;
+        this.compressionThreshold = 256;
+        this.blobThreshold = -1;
+        this.termDictionary = new TermDictionary();
+        this.dictionaries = new ConcurrentHashMap<>();
+        this.pending = new ConcurrentHashMap<>();
+        this.layout = this.readLayout();
+    }
+
+    /**
+     * @return the layout saved in the base directory by setLayout, or DIRECT if there is none
+     * @throws UncheckedIOException if the saved layout cannot be read
+     */
+    private Layout readLayout () {
+        File file = new File(this.dir, LAYOUT_FILE);
+        if (!file.exists()) {
+            return Layout.DIRECT;
+        }
+        try {
+            return Layout.valueOf(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim());
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the layout of the files under the base directory
+     */
+    public Layout getLayout () {
+        return this.layout;
+    }
+
+    /**
+     * Sets the layout of the files under the base directory. The layout is saved there, so a DocumentPersistenceManager
+     * constructed on the same directory later uses it too. Files which are already on disk are not moved; use migrate for that.
+     * @param layout
+     * @throws IOException if the layout could not be saved
+     */
+    public void setLayout (Layout layout) throws IOException {
+        if (layout == null) {
+            throw new IllegalArgumentException("Layout must not be null.");
+        }
+        this.dir.mkdirs();
+        Files.write(new File(this.dir, LAYOUT_FILE).toPath(), layout.name().getBytes(StandardCharsets.UTF_8));
+        this.layout = layout;
+    }
+
+    /**
+     * Moves every Document file under the base directory (including staging directories) to where the given layout puts it,
+     * removes the directories this leaves empty, and then sets the layout. The base directory must not be in use by a DocumentStore.
+     * A migration which is interrupted can be run again; files which are already in place are left alone.
+     * @param target
+     * @return the number of files moved
+     * @throws IOException
+     */
+    public int migrate (Layout target) throws IOException {
+        if (target == null) {
+            throw new IllegalArgumentException("Layout must not be null.");
+        }
+        this.awaitWrites();
+        int moved = 0;
+        for (File baseDir : this.dirs) {
+            if (!baseDir.exists()) {
+                continue;
+            }
+            moved += this.migrate(baseDir, target);
+            for (File stagingDir : baseDir.listFiles((file, name) -> name.startsWith(STAGING_PREFIX))) {
+                moved += this.migrate(stagingDir, target);
+            }
+        }
+        this.setLayout(target);
+        return moved;
+    }
+
+    /**
+     * Files which belong in another base directory (because the base directories have changed) are moved there too
+     * @param root a base directory or a staging directory
+     * @param target
+     * @return the number of files moved
+     * @throws IOException
+     */
+    private int migrate (File root, Layout target) throws IOException {
+        Path rootPath = root.toPath();
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(rootPath)) {
+            files = paths.filter(path -> Files.isRegularFile(path) && path.toString().endsWith(".json") && !this.isInStaging(rootPath, path)).collect(Collectors.toList());
+        }
+        int moved = 0;
+        for (Path file : files) {
+            URI uri = this.decode(file.toFile(), Files.readAllBytes(file)).getKey();
+            File destinationRoot = root.getName().startsWith(STAGING_PREFIX) ? new File(this.getDir(uri), root.getName()) : this.getDir(uri);
+            Path destination = this.getFile(destinationRoot, uri, target).toPath();
+            if (destination.equals(file)) {
+                continue;
+            }
+            Files.createDirectories(destination.getParent());
+            if (destinationRoot.equals(root)) {
+                Files.move(file, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            else {
+                //possibly onto another disk, where the move cannot be atomic
+                Files.move(file, destination, StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved++;
+        }
+        this.deleteEmptyDirectories(rootPath);
+        return moved;
+    }
+
+    private boolean isInStaging (Path root, Path path) {
+        return root.relativize(path).getName(0).toString().startsWith(STAGING_PREFIX);
+    }
+
+    private void deleteEmptyDirectories (Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>)paths.sorted((p1, p2) -> p2.compareTo(p1))::iterator) {
+                String[] children = path.toFile().list();
+                if (!path.equals(root) && children != null && children.length == 0) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the (first) directory under which Documents are serialized
+     */
+    public File getBaseDir () {
+        return this.dir;
+    }
+
+    /**
+     * Keeping files on load lets a Document which is read back into memory and not changed be moved to disk again without writing it.
+     * Off by default: the file of a Document is deleted as soon as it is read back into memory.
+     * @param keep
+     */
+    public void setKeepFilesOnLoad (boolean keep) {
+        this.keepFilesOnLoad = keep;
+    }
+
+    /**
+     * @return true if deserialize leaves the file on disk (always the case after a checkpoint)
+     */
+    @Override
+    public boolean keepsFilesOnLoad () {
+        return this.keepFilesOnLoad || this.staging != null;
+    }
+
+    /**
+     * Sets the thread pool which performs asynchronous reads and writes (and completes their futures) for every base directory.
+     * By default each base directory has its own pool of 8 daemon threads, created the first time one is needed.
+     * @param executor
+     */
+    public synchronized void setIoExecutor (ExecutorService executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor must not be null.");
+        }
+        this.ioExecutor = executor;
+    }
+
+    /**
+     * Sets the thread pool which performs the reads and writes of one base directory (unless setIoExecutor(ExecutorService) has set a pool for all of them)
+     * @param stripe index of the base directory in the list given to the constructor
+     * @param executor
+     */
+    public synchronized void setIoExecutor (int stripe, ExecutorService executor) {
+        if (stripe < 0 || stripe >= this.dirs.length) {
+            throw new IllegalArgumentException("There is no base directory " + stripe + ".");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor must not be null.");
+        }
+        this.stripeExecutors[stripe] = executor;
+    }
+
+    /**
+     * @param uri
+     * @return the thread pool for the base directory of the Document with the given URI
+     */
+    private synchronized ExecutorService getIoExecutor (URI uri) {
+        if (this.ioExecutor != null) {
+            return this.ioExecutor;
+        }
+        int stripe = this.getStripe(uri);
+        if (this.stripeExecutors[stripe] == null) {
+            this.stripeExecutors[stripe] = Executors.newFixedThreadPool(DEFAULT_IO_THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "persistence-io-" + stripe);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return this.stripeExecutors[stripe];
+    }
+
+    /**
+     * Sets the byte budget of the warm tier. Documents which are serialized are first kept in memory in the warm tier, always deflated
+     * (at BEST_SPEED, whether or not compression is on for the files); the least recently used ones are written to disk, in the format
+     * serialize would write them, once the tier is over its budget. Reading a Document back from the warm tier
+     * takes no disk I/O. The warm tier is off (0 bytes) by default. A checkpoint writes everything in the warm tier to disk.
+     * @param bytes budget of the warm tier; 0 turns it off
+     * @throws IOException if the Documents which no longer fit could not be written to disk
+     */
+    public void setWarmTierBytes (long bytes) throws IOException {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Warm tier size must be at least 0.");
+        }
+        if (this.warm == null) {
+            this.warm = new WarmTier(bytes);
+        }
+        this.warm.setBudget(bytes);
+        this.spill(this.warm.overflow());
+        if (bytes == 0) {
+            this.warm = null;
+        }
+    }
+
+    /**
+     * @return number of bytes of serialized Documents held in the warm tier
+     */
+    public long getWarmTierSize () {
+        return this.warm == null ? 0 : this.warm.getBytes();
+    }
+
+    /**
+     * Writes Documents which left the warm tier to disk
+     * @param entries serialized Documents, as demote put them in the warm tier
+     * @throws IOException
+     */
+    private void spill (List<Map.Entry<URI, byte[]>> entries) throws IOException {
+        Map<URI, CompletableFuture<Void>> writes = new HashMap<>();
+        for (Map.Entry<URI, byte[]> entry : entries) {
+            writes.put(entry.getKey(), this.queueSpill(entry.getKey(), entry.getValue()));
+        }
+        this.finish(writes);
+    }
+
+    /**
+     * Sets the byte budget for keeping the contents of Documents in memory outside the Java heap, in slab-allocated direct buffers, instead of
+     * in DocumentImpl objects; only a small handle is left on the heap and the contents are read back whenever they are asked for.
+     * This applies to Documents put into a DocumentStoreImpl with this manager and to Documents read back from disk. Once the budget is used up,
+     * Documents are kept on the heap as usual. Off by default.
+     * @param bytes budget for the direct buffers; lowering it keeps what was already allocated
+     */
+    public void setOffHeapBytes (long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Off-heap size must be at least 0.");
+        }
+        if (this.offHeap == null) {
+            this.offHeap = new SlabAllocator(bytes, SlabAllocator.DEFAULT_SLAB_SIZE);
+        }
+        this.offHeap.setBudget(bytes);
+    }
+
+    /**
+     * @return number of bytes of direct buffers allocated for Documents
+     */
+    public long getOffHeapSize () {
+        return this.offHeap == null ? 0 : this.offHeap.getAllocated();
+    }
+
+    /**
+     * Moves the contents of the Document outside the Java heap, if there is an off-heap budget with room left
+     * @param doc the Document, or null
+     */
+    void moveOffHeap (DocumentImpl doc) {
+        if (this.offHeap != null && doc != null) {
+            doc.moveOffHeap(this.offHeap);
+        }
+    }
+
+    /**
+     * Turns on blob mode: BINARY Documents put into a DocumentStoreImpl with this manager which are larger than the threshold are streamed
+     * straight into a blob file of their own (under the base directory's blobs directory) instead of being read into memory, and only their
+     * metadata is kept in the store. Their data can be streamed back with DocumentStreams. Blob files which the store no longer refers to
+     * are deleted when it checkpoints. Off by default.
+     * @param bytes size above which BINARY Documents are blobs, or a negative number to turn blob mode off
+     */
+    public void setBlobThreshold (int bytes) {
+        if (bytes == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Blob threshold must be less than Integer.MAX_VALUE.");
+        }
+        this.blobThreshold = bytes < 0 ? -1 : bytes;
+    }
+
+    /**
+     * @param dictionary the TermDictionary of the store using this manager, which gives the words of the Documents read in their ids
+     */
+    void setTermDictionary (TermDictionary dictionary) {
+        if (dictionary == null) {
+            throw new IllegalArgumentException("Dictionary must not be null.");
+        }
+        this.termDictionary = dictionary;
+    }
+
+    /**
+     * @return size above which BINARY Documents are blobs, or -1 if blob mode is off
+     */
+    int getBlobThreshold () {
+        return this.blobThreshold;
+    }
+
+    /**
+     * Writes a blob file, computing the hash of the data as it goes, and forces it to the storage device. Blob files are never overwritten.
+     * @param uri
+     * @param head the first bytes of the data, which were already read
+     * @param rest the rest of the data
+     * @return Document holding the metadata of the blob
+     * @throws IOException
+     */
+    DocumentImpl writeBlob (URI uri, byte[] head, InputStream rest) throws IOException {
+        File dir = new File(this.getDir(uri), BLOB_DIR);
+        dir.mkdirs();
+        File file = new File(dir, this.hash(uri).substring(0, 16) + "-" + UUID.randomUUID() + ".blob");
+        int dataHash = 1;
+        long length = 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+            byte[] buffer = head;
+            int count = head.length;
+            while (count > 0) {
+                for (int i = 0; i < count; i++) {
+                    dataHash = 31 * dataHash + buffer[i];
+                }
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, count);
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                length += count;
+                buffer = buffer == head ? new byte[BLOB_BUFFER_SIZE] : buffer;
+                count = Math.max(rest.readNBytes(buffer, 0, buffer.length), 0);
+            }
+            channel.force(true);
+        }
+        return new DocumentImpl(uri, file, length, dataHash);
+    }
+
+    /**
+     * Deletes every blob file under the base directories except the given ones
+     * @param live blob files which are still referred to
+     * @throws IOException
+     */
+    void deleteBlobsExcept (Set<File> live) throws IOException {
+        for (File baseDir : this.dirs) {
+            File[] blobs = new File(baseDir, BLOB_DIR).listFiles();
+            if (blobs == null) {
+                continue;
+            }
+            for (File blob : blobs) {
+                if (!live.contains(blob.getAbsoluteFile())) {
+                    Files.deleteIfExists(blob.toPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the Deflater level used when writing Documents to disk.
+     * Compression is off by default (Deflater.NO_COMPRESSION), in which case Documents are written as plain JSON.
+     * @param level 0 (off) through 9 (Deflater.BEST_COMPRESSION)
+     */
+    public void setCompressionLevel (int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9.");
         }
+        this.compressionLevel = level;
     }
 
     /**
-     * Serializes the Document (uses helper lambda below).
+     * Documents whose serialized form is smaller than the threshold are always written as plain JSON.
+     * @param bytes minimum serialized size worth compressing
+     */
+    public void setCompressionThreshold (int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Threshold must be at least 0.");
+        }
+        this.compressionThreshold = bytes;
+    }
+
+    /**
+     * Sets the preset dictionary used by the Deflater (only the last 32KB are used).
+     * The dictionary is saved under the base directory, named by its Adler-32, so that files written with it can still be read after a restart;
+     * dictionaries set earlier are kept as well, since files compressed with them may still be on disk.
+     * @param dictionary bytes which are likely to appear in the Documents, most common last
+     * @throws IOException if the dictionary could not be saved
+     */
+    public void setCompressionDictionary (byte[] dictionary) throws IOException {
+        if (dictionary == null || dictionary.length == 0) {
+            throw new IllegalArgumentException("Dictionary must not be null or empty.");
+        }
+        if (dictionary.length > MAX_DICTIONARY_SIZE) {
+            dictionary = Arrays.copyOfRange(dictionary, dictionary.length - MAX_DICTIONARY_SIZE, dictionary.length);
+        }
+        int adler = this.adler(dictionary);
+        File file = this.getDictionaryFile(adler);
+        if (!file.exists()) {
+            this.dir.mkdirs();
+            Path tmp = Path.of(file.getPath() + TMP_SUFFIX);
+            Files.write(tmp, dictionary);
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        this.dictionaries.put(adler, dictionary);
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Builds a preset dictionary from a sample of the corpus and sets it as the compression dictionary.
+     * The words which would save the most bytes (frequency * length) are placed at the end of the dictionary, where Deflater finds them cheapest.
+     * @param sample Documents representative of what will be written to disk
+     * @return the dictionary that was set
+     * @throws IOException if the dictionary could not be saved
+     */
+    public byte[] trainCompressionDictionary (Collection<? extends Document> sample) throws IOException {
+        if (sample == null || sample.isEmpty()) {
+            throw new IllegalArgumentException("Sample must not be null or empty.");
+        }
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (Document doc : sample) {
+            this.countDictionaryTerms(doc, frequencies);
+        }
+        List<String> terms = new ArrayList<>(frequencies.keySet());
+        terms.sort((t1, t2) -> Long.compare((long)frequencies.get(t2) * t2.length(), (long)frequencies.get(t1) * t1.length()));
+        String skeleton = "{\n  \"uri\": \"\",\n  \"txt\": \"\",\n  \"binaryData\": null,\n  \"wordToCount\": {\n    \"";
+        int last = 0;
+        for (int length = skeleton.length(); last < terms.size() && length < MAX_DICTIONARY_SIZE; last++) {
+            length += terms.get(last).length();
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = last - 1; i >= 0; i--) {
+            builder.append(terms.get(i));
+        }
+        builder.append(skeleton);
+        this.setCompressionDictionary(builder.toString().getBytes(StandardCharsets.UTF_8));
+        return this.dictionary;
+    }
+
+    /**
+     * Counts the pieces of the Document's JSON (its words and its wordToCount entries) which recur across the sample.
+     * @param doc
+     * @param frequencies running count for each piece
+     */
+    private void countDictionaryTerms (Document doc, Map<String, Integer> frequencies) {
+        if (doc.getDocumentTxt() == null) {
+            return;
+        }
+        for (String word : doc.getDocumentTxt().split("\\s+")) {
+            frequencies.merge(word + " ", 1, Integer::sum);
+        }
+        for (String word : doc.getWordMap().keySet()) {
+            frequencies.merge("\"" + word + "\": ", 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Serializes the Document (uses helper lambda below). The file is written by the I/O threads of the Document's base directory;
+     * between deferWrites and awaitWrites this returns without waiting for it, so that a batch of Documents is written to every base directory at once.
      * @param uri uri of the Document to serialize
      * @param val the Document to serialize
-     * @throws IOException if there is an issue reading input
+     * @throws IOException if the file could not be written (between deferWrites and awaitWrites, only if the write could not be queued)
      */
     @Override
     public void serialize (URI uri, Document val) throws IOException {
         if (uri == null) {
             throw new IllegalArgumentException("URI must not be null.");
         }
+        if (this.warm != null) {
+            this.demote(uri, val);
+        }
+        else {
+            this.finish(Map.of(uri, this.queueWrite(uri, this.encode(val))));
+        }
+    }
+
+    /**
+     * Puts the Document into the warm tier, writing whatever no longer fits there to disk
+     * @param uri
+     * @param val
+     * @throws IOException
+     */
+    private void demote (URI uri, Document val) throws IOException {
+        this.warm.put(uri, this.seal(this.compress(this.toJson(val), WARM_COMPRESSION_LEVEL)));
+        this.spill(this.warm.overflow());
+    }
+
+    /**
+     * Until the next call to awaitWrites, serialize (and the warm tier, when Documents spill out of it) queues its writes without waiting for them
+     */
+    synchronized void deferWrites () {
+        if (this.deferred == null) {
+            this.deferred = new HashMap<>();
+        }
+    }
+
+    /**
+     * Waits for every write which has been queued, including those deferred since deferWrites, and stops deferring writes
+     * @throws IOException the first write which failed, if any did (any others are suppressed by it)
+     */
+    void awaitWrites () throws IOException {
+        IOException failure = null;
+        for (IOException e : this.awaitWriteFailures().values()) {
+            if (failure == null) {
+                failure = e;
+            }
+            else if (failure != e) {
+                failure.addSuppressed(e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Waits for every write which has been queued, including those deferred since deferWrites, and stops deferring writes
+     * @return why the file of each Document whose write failed was not written; empty if every write succeeded
+     */
+    Map<URI, IOException> awaitWriteFailures () {
+        Map<URI, CompletableFuture<Void>> writes = new HashMap<>(this.pending);
+        synchronized (this) {
+            if (this.deferred != null) {
+                //a later write of the same Document was queued after the deferred one, and holds the newer bytes
+                this.deferred.forEach(writes::putIfAbsent);
+                this.deferred = null;
+            }
+        }
+        Map<URI, IOException> failures = new HashMap<>();
+        for (Map.Entry<URI, CompletableFuture<Void>> write : writes.entrySet()) {
+            try {
+                this.await(write.getValue());
+            }
+            catch (IOException e) {
+                failures.put(write.getKey(), e);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Waits for the writes, unless writes are being deferred, in which case awaitWrites waits for them
+     * @param writes each write, by the URI of its Document
+     * @throws IOException if a write failed
+     */
+    private void finish (Map<URI, CompletableFuture<Void>> writes) throws IOException {
+        synchronized (this) {
+            if (this.deferred != null) {
+                this.deferred.putAll(writes);
+                return;
+            }
+        }
+        for (CompletableFuture<Void> write : writes.values()) {
+            this.await(write);
+        }
+    }
+
+    private void await (CompletableFuture<Void> write) throws IOException {
+        try {
+            write.join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException)e.getCause()).getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for the write of the Document which is queued, if there is one, whether or not it succeeds
+     * @param uri
+     */
+    private void awaitPending (URI uri) {
+        CompletableFuture<Void> write = this.pending.get(uri);
+        if (write != null) {
+            write.handle((result, e) -> null).join();
+        }
+    }
+
+    /**
+     * @param uri
+     * @return future which completes once the write of the Document which is queued, if there is one, has finished, whether or not it succeeded
+     */
+    private CompletableFuture<Void> afterPending (URI uri) {
+        CompletableFuture<Void> write = this.pending.get(uri);
+        return write == null ? CompletableFuture.completedFuture(null) : write.handle((result, e) -> null);
+    }
+
+    /**
+     * Queues a write of the Document on the I/O threads of its base directory, to start once the write of it queued before (if any) has finished
+     * @param uri
+     * @param write starts the write once the previous one has finished
+     * @return future which completes once the file has been written
+     */
+    private CompletableFuture<Void> enqueue (URI uri, Function<CompletableFuture<Void>, CompletableFuture<Void>> write) {
+        CompletableFuture<Void> queued = this.pending.compute(uri, (key, previous) -> write.apply(previous == null ? CompletableFuture.completedFuture(null) : previous.handle((result, e) -> null)));
+        queued.whenComplete((result, e) -> this.pending.remove(uri, queued));
+        return queued;
+    }
+
+    /**
+     * Queues the bytes to be written to the Document's file (see write)
+     * @param uri
+     * @param bytes
+     * @return future which completes once the file has been written, or completes exceptionally with an UncheckedIOException
+     */
+    private CompletableFuture<Void> queueWrite (URI uri, byte[] bytes) {
+        File file = this.getWriteFile(uri);
+        ExecutorService executor = this.getIoExecutor(uri);
+        return this.enqueue(uri, previous -> previous.thenRunAsync(() -> {
+            try {
+                this.write(file, bytes);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor));
+    }
+
+    /**
+     * Queues the Document which left the warm tier to be written to its file. It is re-encoded on the I/O threads, since the files
+     * have their own compression settings (see encode).
+     * @param uri
+     * @param warmData the Document as demote put it in the warm tier
+     * @return future which completes once the file has been written, or completes exceptionally with an UncheckedIOException
+     */
+    private CompletableFuture<Void> queueSpill (URI uri, byte[] warmData) {
+        File file = this.getWriteFile(uri);
+        ExecutorService executor = this.getIoExecutor(uri);
+        return this.enqueue(uri, previous -> previous.thenRunAsync(() -> {
+            try {
+                this.write(file, this.encode(this.decode(file, warmData)));
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor));
+    }
+
+    /**
+     * Writes the bytes to a temporary file, forces it to the storage device and renames it over the Document's file
+     * @param file
+     * @param bytes
+     * @throws IOException
+     */
+    private void write (File file, byte[] bytes) throws IOException {
+        Path tmp = Path.of(file.getPath() + TMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            //otherwise the rename could reach the device before the data, leaving an empty or partial file after a crash
+            channel.force(true);
+        }
+        //a crash before this leaves the previous version of the file intact
+        Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.syncDirectory(file.getParentFile().toPath());
+    }
+
+    /**
+     * Forces the directory's entries (e.g. a rename into it) to the storage device. Not every platform can open a directory,
+     * in which case this does nothing.
+     * @param dir
+     */
+    private void syncDirectory (Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+        catch (IOException e) {
+            //e.g. on Windows, where directories cannot be opened; the rename is as durable as the platform makes it
+        }
+    }
+
+    /**
+     * Serializes the Document on the I/O threads and writes it with an AsynchronousFileChannel.
+     * @param uri uri of the Document to serialize
+     * @param val the Document to serialize
+     * @return future which completes once the file has been written (or, with a warm tier, once the Document is in it)
+     */
+    @Override
+    public CompletableFuture<Void> serializeAsync (URI uri, Document val) {
+        if (uri == null) {
+            throw new IllegalArgumentException("URI must not be null.");
+        }
+        if (this.warm != null) {
+            try {
+                this.demote(uri, val);
+                return CompletableFuture.completedFuture(null);
+            }
+            catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        Path path = this.getWriteFile(uri).toPath();
+        ExecutorService executor = this.getIoExecutor(uri);
+        return this.enqueue(uri, previous -> previous.thenApplyAsync(ignored -> this.encode(val), executor).thenCompose(bytes -> this.writeAsync(path, bytes, executor)));
+    }
+
+    /**
+     * Returns the file the Document with the given URI is written to, creating its directory if needed
+     * @param uri
+     * @return the file
+     */
+    private File getWriteFile (URI uri) {
+        File file = this.getFile(this.staging == null ? this.getDir(uri) : this.getStagingDir(uri), uri);
+        if (this.staging != null) {
+            this.staged.add(uri);
+            this.deleted.remove(uri);
+        }
+        file.getParentFile().mkdirs();
+        return file;
+    }
+
+    /**
+     * @param val
+     * @return the bytes of the Document's file: a header, then JSON, compressed if that is worthwhile, then a trailer with its length and checksum
+     */
+    private byte[] encode (Document val) {
+        byte[] json = this.toJson(val);
+        return this.seal(this.shouldCompress(val, json) ? this.compress(json, this.compressionLevel) : json);
+    }
+
+    private byte[] toJson (Document val) {
         Gson gson = new GsonBuilder().registerTypeAdapter(DocumentImpl.class, serializer).setPrettyPrinting().serializeNulls().create();
-        File file = new File(dir, (uri.getAuthority() + uri.getPath() + ".json"));
-        if (!file.exists()) {
-            File parent = new File(file.getParent());
-            parent.mkdirs();
-            file.createNewFile();
+        return gson.toJson(val).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param payload JSON, possibly compressed
+     * @return the payload between its header and its trailer
+     */
+    private byte[] seal (byte[] payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER.length + payload.length + RECORD_TRAILER_SIZE);
+        record.put(RECORD_HEADER).put(payload).putInt(payload.length).putInt((int)crc.getValue()).put(RECORD_MAGIC);
+        return record.array();
+    }
+
+    /**
+     * Checks the header and trailer of a file written by encode and strips them off. A file with the header must have the trailer;
+     * one without it was cut short. Files without the header were written by older versions: if they have the trailer it is checked,
+     * and if they have neither they are returned as they are (the very array given), since only parsing them shows whether they are whole.
+     * @param file the file the data was read from
+     * @param data contents of the file
+     * @return the JSON, possibly compressed
+     * @throws CorruptDocumentException if the file is truncated or fails its checksum
+     */
+    private byte[] unwrap (File file, byte[] data) throws CorruptDocumentException {
+        if (this.startsWith(data, RECORD_HEADER)) {
+            if (!this.hasTrailer(data, RECORD_HEADER.length)) {
+                throw new CorruptDocumentException(file, "Document file is truncated.");
+            }
+            return this.checkTrailer(file, data, RECORD_HEADER.length);
+        }
+        if (this.hasTrailer(data, 0)) {
+            return this.checkTrailer(file, data, 0);
+        }
+        if (this.isCompressedFile(data) || this.endsWithBrace(data)) {
+            return data;
+        }
+        throw new CorruptDocumentException(file, "Document file is truncated.");
+    }
+
+    /**
+     * @param data
+     * @param start where the payload starts
+     * @return true if there is room for a trailer after the start and the data ends with RECORD_MAGIC
+     */
+    private boolean hasTrailer (byte[] data, int start) {
+        return data.length - start >= RECORD_TRAILER_SIZE && Arrays.equals(data, data.length - RECORD_MAGIC.length, data.length, RECORD_MAGIC, 0, RECORD_MAGIC.length);
+    }
+
+    /**
+     * @param file the file the data was read from
+     * @param data contents of the file, ending with a trailer
+     * @param start where the payload starts
+     * @return the payload
+     * @throws CorruptDocumentException if the payload has the wrong length or fails its checksum
+     */
+    private byte[] checkTrailer (File file, byte[] data, int start) throws CorruptDocumentException {
+        int length = data.length - start - RECORD_TRAILER_SIZE;
+        ByteBuffer trailer = ByteBuffer.wrap(data, start + length, RECORD_TRAILER_SIZE);
+        if (trailer.getInt() != length) {
+            throw new CorruptDocumentException(file, "Document file has the wrong length.");
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(data, start, length);
+        if ((int)crc.getValue() != trailer.getInt()) {
+            throw new CorruptDocumentException(file, "Document file failed its checksum.");
+        }
+        return Arrays.copyOfRange(data, start, start + length);
+    }
+
+    /**
+     * @param data
+     * @return true if the last character other than whitespace is the closing brace of a JSON object
+     */
+    private boolean endsWithBrace (byte[] data) {
+        for (int i = data.length - 1; i >= 0; i--) {
+            if (!Character.isWhitespace(data[i])) {
+                return data[i] == '}';
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks every Document file under the base directories (including staging directories) against its checksum, without parsing it
+     * (files written before checksums were added are parsed instead), and deletes the temporary files left behind by writes which were interrupted.
+     * @return the files which are corrupt; empty if there are none
+     * @throws IOException if the base directories cannot be read
+     */
+    public List<File> verify () throws IOException {
+        this.awaitWrites();
+        List<File> corrupt = new ArrayList<>();
+        for (File baseDir : this.dirs) {
+            if (!baseDir.exists()) {
+                continue;
+            }
+            try (Stream<Path> paths = Files.walk(baseDir.toPath())) {
+                for (Path path : (Iterable<Path>)paths.filter(Files::isRegularFile)::iterator) {
+                    String name = path.getFileName().toString();
+                    if (name.endsWith(TMP_SUFFIX)) {
+                        Files.deleteIfExists(path);
+                    }
+                    else if (name.endsWith(".json") && !this.isIntact(path)) {
+                        corrupt.add(path.toFile());
+                    }
+                }
+            }
+        }
+        return corrupt;
+    }
+
+    private boolean isIntact (Path path) throws IOException {
+        try {
+            byte[] data = Files.readAllBytes(path);
+            if (this.unwrap(path.toFile(), data) == data) {
+                this.decodePayload(path.toFile(), data);
+            }
+            return true;
         }
-        try (FileWriter fw = new FileWriter(file)) {
-            gson.toJson(val, fw);
+        catch (CorruptDocumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the bytes to a temporary file next to the path, forces it to the storage device and then renames it over the path, as serialize does
+     * @param path
+     * @param bytes
+     * @param executor
+     * @return future which completes once the file is in place
+     */
+    private CompletableFuture<Void> writeAsync (Path path, byte[] bytes, ExecutorService executor) {
+        Path tmp = Path.of(path + TMP_SUFFIX);
+        try {
+            AsynchronousFileChannel channel = AsynchronousFileChannel.open(tmp, Set.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING), executor);
+            return this.transfer(channel, ByteBuffer.wrap(bytes), false).thenApply(buffer -> {
+                try {
+                    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    this.syncDirectory(path.getParent());
+                    return null;
+                }
+                catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
         }
         catch (IOException e) {
-            e.printStackTrace();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * @param path
+     * @param executor
+     * @return future of the whole contents of the file, or of null if there is no such file
+     */
+    private CompletableFuture<byte[]> readAsync (Path path, ExecutorService executor) {
+        try {
+            AsynchronousFileChannel channel = AsynchronousFileChannel.open(path, Set.of(StandardOpenOption.READ), executor);
+            return this.transfer(channel, ByteBuffer.allocate((int)channel.size()), true).thenApply(buffer -> Arrays.copyOf(buffer.array(), buffer.limit()));
+        }
+        catch (NoSuchFileException e) {
+            return CompletableFuture.completedFuture(null);
+        }
+        catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Reads from the start of the channel into the buffer, or writes the buffer to the start of the channel, one operation after another
+     * until the buffer is full (or the file ends) or has all been written. What was written is forced to the storage device, and the channel is then closed.
+     * @param channel
+     * @param buffer
+     * @param read true to read, false to write
+     * @return future of the buffer, flipped
+     */
+    private CompletableFuture<ByteBuffer> transfer (AsynchronousFileChannel channel, ByteBuffer buffer, boolean read) {
+        CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+        this.transfer(channel, buffer, read, future);
+        return future;
+    }
+
+    private void transfer (AsynchronousFileChannel channel, ByteBuffer buffer, boolean read, CompletableFuture<ByteBuffer> future) {
+        CompletionHandler<Integer, Void> handler = new CompletionHandler<>() {
+            @Override
+            public void completed (Integer count, Void attachment) {
+                if (count >= 0 && buffer.hasRemaining()) {
+                    transfer(channel, buffer, read, future);
+                    return;
+                }
+                try (channel) {
+                    if (!read) {
+                        channel.force(true);
+                    }
+                }
+                catch (IOException e) {
+                    future.completeExceptionally(e);
+                    return;
+                }
+                future.complete(buffer.flip());
+            }
+
+            @Override
+            public void failed (Throwable e, Void attachment) {
+                try {
+                    channel.close();
+                }
+                catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                future.completeExceptionally(e);
+            }
+        };
+        if (read) {
+            channel.read(buffer, buffer.position(), null, handler);
+        }
+        else {
+            channel.write(buffer, buffer.position(), null, handler);
         }
     }
 
@@ -64,7 +1096,13 @@ public class DocumentPersistenceManager implements PersistenceManager<URI, Docum
         Gson gson = new Gson();
         json.add("uri", gson.toJsonTree(doc.getKey()));
         json.add("txt", gson.toJsonTree(doc.getDocumentTxt()));
-        if (doc.getDocumentTxt() != null) {
+        if (doc.isBlob()) {
+            json.add("binaryData", JsonNull.INSTANCE);
+            json.add("blob", gson.toJsonTree(doc.getBlobFile().getPath()));
+            json.add("blobLength", gson.toJsonTree(doc.getBlobLength()));
+            json.add("blobHash", gson.toJsonTree(doc.getBlobHash()));
+        }
+        else if (doc.getDocumentTxt() != null) {
             json.add("binaryData", JsonNull.INSTANCE);
         }
         else {
@@ -74,32 +1112,287 @@ public class DocumentPersistenceManager implements PersistenceManager<URI, Docum
         return json;
     };
 
+    /**
+     * Builds the Document through its constructors, so that its word counts go straight into the store's TermDictionary
+     */
+    private JsonDeserializer<DocumentImpl> deserializer = (JsonElement element, Type type, JsonDeserializationContext context) -> {
+        try {
+            JsonObject json = element.getAsJsonObject();
+            URI uri = context.deserialize(json.get("uri"), URI.class);
+            if (json.has("blob") && !json.get("blob").isJsonNull()) {
+                return new DocumentImpl(uri, new File(json.get("blob").getAsString()), json.get("blobLength").getAsLong(), json.get("blobHash").getAsInt());
+            }
+            if (json.has("txt") && !json.get("txt").isJsonNull()) {
+                Map<String, Integer> wordToCount = context.deserialize(json.get("wordToCount"), new TypeToken<Map<String, Integer>>(){}.getType());
+                return new DocumentImpl(uri, json.get("txt").getAsString(), new TermCounts(this.termDictionary, wordToCount));
+            }
+            return new DocumentImpl(uri, (byte[])context.deserialize(json.get("binaryData"), byte[].class));
+        }
+        catch (JsonParseException e) {
+            throw e;
+        }
+        catch (RuntimeException e) {
+            throw new JsonParseException("JSON is not a Document.", e);
+        }
+    };
+
+    /**
+     * Chooses per Document whether compressing is worthwhile: compression must be on, the Document must be over the threshold,
+     * and binary data must not already be in a compressed format.
+     * @param doc
+     * @param json serialized form of the Document
+     * @return true if the Document should be written compressed
+     */
+    private boolean shouldCompress (Document doc, byte[] json) {
+        if (this.compressionLevel == Deflater.NO_COMPRESSION || json.length < this.compressionThreshold) {
+            return false;
+        }
+        return this.isCompressible(doc);
+    }
+
+    /**
+     * @param doc
+     * @return false if the Document is binary data which is already in a compressed format
+     */
+    private boolean isCompressible (Document doc) {
+        if (doc instanceof DocumentImpl && ((DocumentImpl) doc).isBlob()) {
+            return true;
+        }
+        return doc.getDocumentTxt() != null || !this.isCompressedFormat(doc.getDocumentBinaryData());
+    }
+
+    /**
+     * @param data
+     * @return true if the data starts with the signature of a known compressed format
+     */
+    private boolean isCompressedFormat (byte[] data) {
+        for (byte[] signature : COMPRESSED_SIGNATURES) {
+            if (this.startsWith(data, signature)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Deflates the serialized Document, prefixed by COMPRESSED_MAGIC so it can be told apart from plain JSON.
+     * @param json
+     * @param level Deflater level
+     * @return compressed bytes, or the JSON itself if compressing did not make it any smaller
+     */
+    private byte[] compress (byte[] json, int level) {
+        Deflater deflater = new Deflater(level);
+        if (this.dictionary != null) {
+            deflater.setDictionary(this.dictionary);
+        }
+        deflater.setInput(json);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4 + COMPRESSED_MAGIC.length);
+        out.writeBytes(COMPRESSED_MAGIC);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished() && out.size() < json.length) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.size() < json.length ? out.toByteArray() : json;
+    }
+
+    /**
+     * Inflates a file written by compress, loading the preset dictionary if the stream was written with one.
+     * @param file the file the data was read from, or would have been
+     * @param data file contents, including COMPRESSED_MAGIC
+     * @return the serialized Document
+     * @throws CorruptDocumentException if the data is truncated or corrupt
+     * @throws IOException if its dictionary is unavailable
+     */
+    private byte[] decompress (File file, byte[] data) throws IOException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data, COMPRESSED_MAGIC.length, data.length - COMPRESSED_MAGIC.length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+        byte[] buffer = new byte[8192];
+        try {
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && inflater.needsDictionary()) {
+                    inflater.setDictionary(this.getDictionary(inflater.getAdler()));
+                }
+                else if (count == 0 && inflater.needsInput()) {
+                    throw new CorruptDocumentException(file, "Compressed document is truncated.");
+                }
+                out.write(buffer, 0, count);
+            }
+        }
+        catch (DataFormatException e) {
+            throw new CorruptDocumentException(file, "Compressed document is corrupt.", e);
+        }
+        finally {
+            inflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the preset dictionary with the given Adler-32 checksum, reading it from the base directory if it is not loaded.
+     * @param adler checksum the compressed stream expects
+     * @return the dictionary
+     * @throws IOException if no matching dictionary is available
+     */
+    private byte[] getDictionary (int adler) throws IOException {
+        byte[] dictionary = this.dictionaries.get(adler);
+        if (dictionary != null) {
+            return dictionary;
+        }
+        File file = this.getDictionaryFile(adler);
+        File legacy = new File(this.dir, LEGACY_DICTIONARY_FILE);
+        if (file.exists()) {
+            dictionary = Files.readAllBytes(file.toPath());
+        }
+        else if (legacy.exists()) {
+            dictionary = Files.readAllBytes(legacy.toPath());
+        }
+        if (dictionary == null || this.adler(dictionary) != adler) {
+            throw new IOException("Compression dictionary used for this document is not available.");
+        }
+        this.dictionaries.put(adler, dictionary);
+        return dictionary;
+    }
+
+    /**
+     * @param adler
+     * @return the file under the base directory in which the dictionary with the given Adler-32 checksum is saved
+     */
+    private File getDictionaryFile (int adler) {
+        return new File(this.dir, DICTIONARY_PREFIX + String.format("%08x", adler) + DICTIONARY_SUFFIX);
+    }
+
+    private int adler (byte[] bytes) {
+        Adler32 adler = new Adler32();
+        adler.update(bytes);
+        return (int)adler.getValue();
+    }
+
+    /**
+     * @param data
+     * @return true if the data was written by compress
+     */
+    private boolean isCompressedFile (byte[] data) {
+        return this.startsWith(data, COMPRESSED_MAGIC);
+    }
+
+    private boolean startsWith (byte[] data, byte[] magic) {
+        return data.length >= magic.length && Arrays.equals(data, 0, magic.length, magic, 0, magic.length);
+    }
+
     /**
      * Deserializes the Document.
      * @param uri uri of the Document to deserialize
      * @return the deserialized Document
      * @throws IOException if there is an issue reading input
+     * @throws CorruptDocumentException if the Document's file is corrupt
      */
     @Override
     public Document deserialize (URI uri) throws IOException {
         if (uri == null) {
             throw new IllegalArgumentException("URI must not be null.");
         }
-        Gson gson = new Gson();
-        File file = new File(dir, (uri.getAuthority() + uri.getPath() + ".json"));
+        this.awaitPending(uri);
         DocumentImpl doc;
-        try (FileReader json = new FileReader(file)) {
-            doc = gson.fromJson(json, DocumentImpl.class);
+        byte[] warmData = this.warm == null ? null : this.warm.get(uri);
+        try {
+            File file = this.getReadFile(uri);
+            doc = warmData != null ? this.decode(file, warmData) : this.decode(file, Files.readAllBytes(file.toPath()));
         }
-        catch (FileNotFoundException e) {
+        catch (NoSuchFileException e) {
             return null;
         }
-        this.delete(uri);
+        this.moveOffHeap(doc);
+        if (!this.keepsFilesOnLoad()) {
+            this.delete(uri);
+        }
         return doc;
     }
 
+    /**
+     * Reads the Document's file with an AsynchronousFileChannel and deserializes it on the I/O threads. The file is left on disk.
+     * @param uri uri of the Document to deserialize
+     * @return future of the Document, or of null if it has no file; completes exceptionally with a CorruptDocumentException if the file is corrupt
+     */
+    @Override
+    public CompletableFuture<Document> deserializeAsync (URI uri) {
+        if (uri == null) {
+            throw new IllegalArgumentException("URI must not be null.");
+        }
+        File file = this.getReadFile(uri);
+        byte[] warmData = this.warm == null ? null : this.warm.get(uri);
+        if (warmData != null) {
+            try {
+                DocumentImpl doc = this.decode(file, warmData);
+                this.moveOffHeap(doc);
+                return CompletableFuture.completedFuture(doc);
+            }
+            catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        ExecutorService executor = this.getIoExecutor(uri);
+        return this.afterPending(uri).thenCompose(ignored -> this.readAsync(file.toPath(), executor)).thenApply(data -> {
+            try {
+                DocumentImpl doc = data == null ? null : this.decode(file, data);
+                this.moveOffHeap(doc);
+                return doc;
+            }
+            catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * @param uri
+     * @return the file holding the latest version of the Document with the given URI
+     */
+    private File getReadFile (URI uri) {
+        return this.getFile(this.staging != null && this.staged.contains(uri) ? this.getStagingDir(uri) : this.getDir(uri), uri);
+    }
+
+    /**
+     * @param file the file the data was read from
+     * @param data contents of a file written by serialize
+     * @return the Document
+     * @throws CorruptDocumentException if the file is truncated, fails its checksum, cannot be inflated or is not valid JSON
+     * @throws IOException if the file is compressed with a dictionary which is unavailable
+     */
+    private DocumentImpl decode (File file, byte[] data) throws IOException {
+        return this.decodePayload(file, this.unwrap(file, data));
+    }
+
+    /**
+     * @param file the file the data was read from, or would have been
+     * @param data JSON, possibly compressed
+     * @return the Document
+     * @throws CorruptDocumentException if the data cannot be inflated or is not a Document
+     * @throws IOException if the data is compressed with a dictionary which is unavailable
+     */
+    private DocumentImpl decodePayload (File file, byte[] data) throws IOException {
+        if (this.isCompressedFile(data)) {
+            data = this.decompress(file, data);
+        }
+        try {
+            Gson gson = new GsonBuilder().registerTypeAdapter(DocumentImpl.class, deserializer).create();
+            DocumentImpl doc = gson.fromJson(new String(data, StandardCharsets.UTF_8), DocumentImpl.class);
+            if (doc == null) {
+                throw new CorruptDocumentException(file, "Document file is empty.");
+            }
+            return doc;
+        }
+        catch (JsonParseException e) {
+            throw new CorruptDocumentException(file, "Document file is not valid JSON.", e);
+        }
+    }
+
     /**
      * delete the file stored on disk that corresponds to the given key
+     * While staging, a committed file is only deleted on the next commit, since the last checkpoint may still refer to it.
      * @param key
      * @return true or false to indicate if deletion occured or not
      * @throws IOException
@@ -109,7 +1402,200 @@ public class DocumentPersistenceManager implements PersistenceManager<URI, Docum
         if (uri == null) {
             throw new IllegalArgumentException("URI must not be null.");
         }
-        File deletion = new File(dir, (uri.getAuthority() + uri.getPath() + ".json"));
-        return deletion.delete();
+        this.awaitPending(uri);
+        boolean wasWarm = this.warm != null && this.warm.remove(uri) != null;
+        if (this.staging == null) {
+            return this.getFile(this.getDir(uri), uri).delete() || wasWarm;
+        }
+        boolean wasStaged = this.staged.remove(uri) && this.getFile(this.getStagingDir(uri), uri).delete();
+        this.deleted.add(uri);
+        return wasStaged || wasWarm || this.getFile(this.getDir(uri), uri).exists();
+    }
+
+    /**
+     * Starts sending every write to a staging directory (in each base directory) for the given checkpoint generation, leaving the committed files untouched.
+     * Documents read after this are not deleted from disk.
+     * @param generation
+     */
+    void stage (long generation) {
+        this.staging = STAGING_PREFIX + generation;
+        this.staged = new HashSet<>();
+        this.deleted = new HashSet<>();
+    }
+
+    /**
+     * Writes out the warm tier, waits for every queued write, forces every staged file to the storage device and records the pending deletions next to them,
+     * so that the staging directory can be committed even after a crash.
+     * @throws IOException
+     */
+    void prepareCommit () throws IOException {
+        if (this.warm != null) {
+            this.spill(this.warm.drain());
+        }
+        this.awaitWrites();
+        for (URI uri : this.staged) {
+            try (FileChannel channel = FileChannel.open(this.getFile(this.getStagingDir(uri), uri).toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+        List<List<String>> lines = new ArrayList<>();
+        for (int i = 0; i < this.dirs.length; i++) {
+            lines.add(new ArrayList<>());
+        }
+        for (URI uri : this.deleted) {
+            lines.get(this.getStripe(uri)).add(uri.toString());
+        }
+        for (int i = 0; i < this.dirs.length; i++) {
+            File stagingDir = new File(this.dirs[i], this.staging);
+            stagingDir.mkdirs();
+            Path deletedFile = new File(stagingDir, DELETED_FILE).toPath();
+            Files.write(deletedFile, lines.get(i), StandardCharsets.UTF_8);
+            try (FileChannel channel = FileChannel.open(deletedFile, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+    }
+
+    /**
+     * Moves the staged files over the committed ones and carries out the pending deletions, then keeps staging for the next generation.
+     * @param nextGeneration
+     * @throws IOException
+     */
+    void commit (long nextGeneration) throws IOException {
+        for (File baseDir : this.dirs) {
+            this.promote(new File(baseDir, this.staging));
+        }
+        this.stage(nextGeneration);
+    }
+
+    /**
+     * Called on startup with the generation of the last checkpoint: finishes committing its staging directory if a crash interrupted
+     * the commit, and discards any other staging directory (writes made after the checkpoint, which the log will redo).
+     * @param generation
+     * @throws IOException
+     */
+    void recover (long generation) throws IOException {
+        for (File baseDir : this.dirs) {
+            this.recover(baseDir, generation);
+        }
+    }
+
+    private void recover (File baseDir, long generation) throws IOException {
+        File[] children = baseDir.listFiles((file, name) -> name.startsWith(STAGING_PREFIX));
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.getName().equals(STAGING_PREFIX + generation)) {
+                this.promote(child);
+            }
+            else {
+                this.deleteTree(child.toPath());
+            }
+        }
+    }
+
+    /**
+     * @param stagingDir a staging directory whose deletion list has been written by prepareCommit
+     * @throws IOException
+     */
+    private void promote (File stagingDir) throws IOException {
+        if (!stagingDir.exists()) {
+            return;
+        }
+        File baseDir = stagingDir.getParentFile();
+        Path deletedFile = new File(stagingDir, DELETED_FILE).toPath();
+        if (Files.exists(deletedFile)) {
+            for (String line : Files.readAllLines(deletedFile, StandardCharsets.UTF_8)) {
+                this.getFile(baseDir, this.toUri(line)).delete();
+            }
+        }
+        Files.deleteIfExists(deletedFile);
+        Path from = stagingDir.toPath();
+        Path to = baseDir.toPath();
+        try (Stream<Path> files = Files.walk(from)) {
+            for (Path file : (Iterable<Path>)files.filter(Files::isRegularFile)::iterator) {
+                Path target = to.resolve(from.relativize(file));
+                Files.createDirectories(target.getParent());
+                Files.move(file, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        this.deleteTree(from);
+    }
+
+    private URI toUri (String uri) throws IOException {
+        try {
+            return new URI(uri);
+        }
+        catch (URISyntaxException e) {
+            throw new IOException("Staging directory contains an invalid URI.", e);
+        }
+    }
+
+    private void deleteTree (Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>)paths.sorted((p1, p2) -> p2.compareTo(p1))::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * @param uri
+     * @return index of the base directory the Document with the given URI is stored in
+     */
+    private int getStripe (URI uri) {
+        return Math.floorMod(uri.toString().hashCode(), this.dirs.length);
+    }
+
+    private File getDir (URI uri) {
+        return this.dirs[this.getStripe(uri)];
+    }
+
+    private File getStagingDir (URI uri) {
+        return new File(this.getDir(uri), this.staging);
+    }
+
+    /**
+     * @param root directory the file is under
+     * @param uri
+     * @return the file in which the Document with the given URI is stored
+     */
+    private File getFile (File root, URI uri) {
+        return this.getFile(root, uri, this.layout);
+    }
+
+    private File getFile (File root, URI uri, Layout layout) {
+        if (layout == Layout.DIRECT) {
+            return new File(root, (uri.getAuthority() + uri.getPath() + ".json"));
+        }
+        String hash = this.hash(uri);
+        File parent = root;
+        for (int i = 0; i < HASH_DEPTH; i++) {
+            parent = new File(parent, hash.substring(2 * i, 2 * i + 2));
+        }
+        return new File(parent, hash + ".json");
+    }
+
+    /**
+     * @param uri
+     * @return the SHA-256 of the URI, in hex
+     */
+    private String hash (URI uri) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(uri.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder hex = new StringBuilder(2 * digest.length);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
     }
-}
\ No newline at end of file
+}
@@ -8,17 +8,26 @@ import edu.yu.cs.com1320.project.DocumentStore;
 import edu.yu.cs.com1320.project.PersistenceManager;
 
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.Comparator;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class DocumentStoreImpl implements DocumentStore {
 
@@ -26,21 +35,30 @@ public class DocumentStoreImpl implements DocumentStore {
     private StackImpl<Undoable> commandStack;
     private TrieImpl<URI> trie;
     private MinHeapImpl<LUT> heap;
+    private IdAllocator<URI> docIds;
+    private DocumentImpl[] resident; //the Documents in the Heap, indexed by doc id
+    private Map<URI, DocumentImpl> evicted; //Documents moved to disk whose files may not have been written yet (see awaitEvictions)
+    private Map<URI, Long> evictedVersions; //version of each of them in the BTree once it was moved to disk
+    private Map<URI, Exception> evictionFailures; //those which could not be moved to disk at all, and are still in the BTree's memory
     private int documentCount;
     private int documentBytes;
     private Integer maxDocumentCount;
     private Integer maxDocumentBytes;
-    private File dir;
+    private DocumentPersistenceManager pm;
+    private WriteAheadLog wal;
+    private IndexSnapshot snapshot;
+    private long generation; //generation of the last checkpoint, 0 if there has not been one
 
     /**
      * Class for linking a URI with its respective last use time (LUT).
+     * Holds the URI's doc id, so comparing LUTs compares ints and looks the Documents up in the resident table, not the BTree.
      */
     private final class LUT implements Comparable<LUT> {
 
-        private URI uri;
+        private int id;
 
         LUT (URI uri) {
-            this.uri = uri;
+            this.id = docIds.getId(uri);
         }
 
         @Override
@@ -48,7 +66,12 @@ public class DocumentStoreImpl implements DocumentStore {
             if (!(o instanceof LUT)) {
                 return false;
             }
-            return this.uri.equals(((LUT)o).getURI());
+            return this.id == ((LUT)o).id;
+        }
+
+        @Override
+        public int hashCode () {
+            return this.id;
         }
 
         @Override
@@ -65,11 +88,11 @@ public class DocumentStoreImpl implements DocumentStore {
         }
 
         private long getLastUseTime () {
-            return storage.get(uri).getLastUseTime();
+            return resident[this.id].getLastUseTime();
         }
 
         private URI getURI () {
-            return this.uri;
+            return docIds.get(this.id);
         }
     }
 
@@ -77,7 +100,7 @@ public class DocumentStoreImpl implements DocumentStore {
      * Constructor for DocumentStore with default baseDir
      */
     public DocumentStoreImpl () {
-        this(null);
+        this((File) null);
     }
 
     /**
@@ -85,22 +108,191 @@ public class DocumentStoreImpl implements DocumentStore {
      * @param baseDir specific baseDir for PersistenceManager
      */
     public DocumentStoreImpl (File baseDir) {
-        this.storage = new BTreeImpl<>();
-        this.storage.setPersistenceManager((PersistenceManager) new DocumentPersistenceManager(baseDir));
-        this.commandStack = new StackImpl<>();
-        this.trie = new TrieImpl<>();
-        this.heap = new MinHeapImpl<>();
-        if (baseDir == null) {
-            this.dir = new File(System.getProperty("user.dir"));
+        this(new DocumentPersistenceManager(baseDir));
+    }
+
+    /**
+     * Constructor for DocumentStore with a preconfigured PersistenceManager (e.g. with compression turned on)
+     * @param pm PersistenceManager the BTree will use for all disk I/O
+     * @throws UncheckedIOException if the base directory has a snapshot which cannot be loaded
+     */
+    public DocumentStoreImpl (DocumentPersistenceManager pm) {
+        try {
+            this.init(pm);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Constructor for DocumentStore which recovers its state from the given WriteAheadLog and then logs every change to it
+     * @param pm PersistenceManager the BTree will use for all disk I/O
+     * @param wal log to replay and then append to
+     * @throws IOException if the snapshot or the log cannot be read
+     */
+    public DocumentStoreImpl (DocumentPersistenceManager pm, WriteAheadLog wal) throws IOException {
+        if (wal == null) {
+            throw new IllegalArgumentException("WriteAheadLog must not be null.");
+        }
+        this.init(pm);
+        if (wal.getGeneration() >= this.generation) {
+            wal.recover(this);
         }
         else {
-            this.dir = baseDir;
+            //the last checkpoint already covers everything in the log
+            wal.reset(this.generation);
         }
+        this.wal = wal;
+    }
+
+    /**
+     * Sets up the data structures of the DocumentStore, loading the index from the base directory's snapshot if there is one
+     * @param pm PersistenceManager the BTree will use for all disk I/O
+     * @throws IOException if the snapshot cannot be loaded
+     */
+    private void init (DocumentPersistenceManager pm) throws IOException {
+        if (pm == null) {
+            throw new IllegalArgumentException("PersistenceManager must not be null.");
+        }
+        this.pm = pm;
+        this.storage = new BTreeImpl<>();
+        this.storage.setPersistenceManager((PersistenceManager) pm);
+        this.commandStack = new StackImpl<>();
+        this.docIds = new IdAllocator<>();
+        this.trie = new TrieImpl<>(this.docIds, new TermDictionary());
+        this.pm.setTermDictionary(this.trie.getDictionary());
+        this.heap = new MinHeapImpl<>();
+        this.resident = new DocumentImpl[16];
+        this.evicted = new HashMap<>();
+        this.evictedVersions = new HashMap<>();
+        this.evictionFailures = new HashMap<>();
         try {
             this.storage.put(new URI(""), null);
         } catch (URISyntaxException e) {
             e.printStackTrace();
         }
+        this.snapshot = new IndexSnapshot(pm.getBaseDir());
+        this.loadSnapshot();
+    }
+
+    /**
+     * Loads the index from the last checkpoint, if there was one, and brings the Documents that were in memory at the time back into memory
+     * @throws IOException
+     */
+    private void loadSnapshot () throws IOException {
+        List<URI> resident = new ArrayList<>();
+        if (this.snapshot.exists()) {
+            this.generation = this.snapshot.load(this.storage, this.trie, resident);
+        }
+        this.pm.recover(this.generation);
+        if (this.generation == 0) {
+            return;
+        }
+        this.pm.stage(this.generation + 1);
+        long useTime = System.nanoTime();
+        for (URI uri : resident) {
+            this.addToHeapAndUsage(this.storage.get(uri), useTime);
+        }
+    }
+
+    /**
+     * Writes a checkpoint (see Checkpointer): every Document in memory is written to disk, then the snapshot of the index, then the log is emptied
+     * @throws IOException if the checkpoint cannot be written; the previous checkpoint and the log are then still intact
+     */
+    synchronized void checkpoint () throws IOException {
+        long next = this.generation + 1;
+        if (this.generation == 0) {
+            this.pm.stage(next);
+        }
+        List<URI> keys = this.storage.keys();
+        Set<URI> resident = new HashSet<>();
+        Set<File> blobs = new HashSet<>();
+        this.flushAll(keys, resident, blobs);
+        this.pm.prepareCommit();
+        this.snapshot.write(next, keys, resident, this.trie);
+        this.generation = next;
+        this.pm.commit(next + 1);
+        if (this.wal != null) {
+            this.wal.reset(next);
+        }
+        this.commandStack = new StackImpl<>();
+        //neither the snapshot, the log nor the (empty) commandStack can refer to any other blob now
+        this.pm.deleteBlobsExcept(blobs);
+    }
+
+    /**
+     * Writes every Document in memory to disk, to every base directory at once. Each one is marked as written only once its write has
+     * succeeded, so one whose write failed is written again when it is moved to disk rather than dropped from memory.
+     * @param keys every URI in the BTree
+     * @param resident set to add the URIs of the Documents in memory to
+     * @param blobs set to add the blob files of the Documents in memory to
+     * @throws IOException the first write which failed, if any did
+     */
+    private void flushAll (List<URI> keys, Set<URI> resident, Set<File> blobs) throws IOException {
+        Map<URI, Long> versions = new HashMap<>();
+        IOException failure = null;
+        this.pm.deferWrites();
+        try {
+            for (URI uri : keys) {
+                if (!this.storage.isOnDisk(uri)) {
+                    resident.add(uri);
+                    this.flush(uri);
+                    versions.put(uri, this.storage.getVersion(uri));
+                    this.addBlob(uri, blobs);
+                }
+            }
+        }
+        catch (IOException e) {
+            failure = e;
+        }
+        Map<URI, IOException> failures = this.pm.awaitWriteFailures();
+        versions.forEach((uri, version) -> {
+            if (!failures.containsKey(uri)) {
+                this.storage.setWritten(uri, version);
+            }
+        });
+        if (failure == null && !failures.isEmpty()) {
+            failure = failures.values().iterator().next();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Compacts the index after bulk deletes (see IndexVacuum and TrieImpl.vacuum). The Documents in memory take their word ids from the
+     * vacuumed dictionary, so the old one is only kept alive by Documents which have left the store (e.g. for undo).
+     */
+    synchronized void vacuum () {
+        this.trie.vacuum();
+        TermDictionary dictionary = this.trie.getDictionary();
+        this.pm.setTermDictionary(dictionary);
+        for (DocumentImpl doc : this.resident) {
+            if (doc != null) {
+                doc.setTermDictionary(dictionary);
+            }
+        }
+    }
+
+    /**
+     * @param uri a Document in memory (blobs always are)
+     * @param blobs set to add the Document's blob file to, if it is a blob
+     */
+    private void addBlob (URI uri, Set<File> blobs) {
+        DocumentImpl doc = this.storage.get(uri);
+        if (doc.isBlob()) {
+            blobs.add(doc.getBlobFile().getAbsoluteFile());
+        }
+    }
+
+    private void flush (URI uri) throws IOException {
+        try {
+            this.storage.flush(uri);
+        }
+        catch (Exception e) {
+            throw new IOException("Could not write " + uri + " to disk.", e);
+        }
     }
     
     /**
@@ -113,76 +305,197 @@ public class DocumentStoreImpl implements DocumentStore {
      * @throws IllegalArgumentException if uri or format are null
      */
     @Override
-    public int putDocument (InputStream input, URI uri, DocumentFormat format) throws IOException {
+    public synchronized int putDocument (InputStream input, URI uri, DocumentFormat format) throws IOException {
         if (uri == null || uri.toString().isEmpty() || format == null) {
             throw new IllegalArgumentException("URI and Format must not be null/empty.");
         }
         if (input == null) {
             DocumentImpl deletion = this.removeDocument(this.storage.get(uri));
             this.addGenericCommand(uri, null, deletion);
+            if (this.wal != null) {
+                this.wal.logDelete(uri);
+            }
             return (deletion == null ? 0 : deletion.hashCode());
         }
-        byte[] content = input.readAllBytes();
-        DocumentImpl doc = this.createDocument(content, uri, format);
+        DocumentImpl doc = this.createDocument(input, uri, format);
+        DocumentImpl prevDoc = this.replaceDocument(uri, doc);
+        this.logPut(uri, format, doc);
+        return (prevDoc == null ? 0 : prevDoc.hashCode());
+    }
+
+    /**
+     * Puts a new, already indexed Document into storage in place of the previous one at its URI, if any, and makes the put undoable
+     * @param uri
+     * @param doc
+     * @return the previous Document, or null if there was none
+     */
+    private DocumentImpl replaceDocument (URI uri, DocumentImpl doc) {
+        this.pm.moveOffHeap(doc);
+        //a previous Document which was on disk is not in the Heap or Usage
+        boolean prevInHeap = this.heap.contains(new LUT(uri));
+        if (doc.isBlob() && prevInHeap) {
+            //a blob does not go into the Heap or Usage, so the previous Document leaves them before it is replaced
+            this.removeFromHeapAndUsage(this.storage.get(uri));
+            prevInHeap = false;
+        }
         DocumentImpl prevDoc = this.storage.put(uri, doc);
         LinkedHashSet<URI> removedUris;
         if (prevDoc != null) {
-            for (String word : prevDoc.getWords()) {
-                this.trie.delete(word, prevDoc.getKey());
-            }
+            this.unindexDocument(prevDoc);
+        }
+        if (prevDoc != null && prevInHeap) {
             removedUris = this.updateHeapAndUsage(doc, prevDoc, System.nanoTime());
         }
         else {
             removedUris = this.addToHeapAndUsage(doc, System.nanoTime());
         }
         this.addGenericCommand(uri, doc, prevDoc, removedUris);
-        return (prevDoc == null ? 0 : prevDoc.hashCode());
+        return prevDoc;
     }
 
     /**
-     * Creates a DocumentImpl and adds it to the Trie
-     * @param content byte[] with the content to create the document
+     * Puts a blob whose file is already on disk, as when the WriteAheadLog replays a put of one, without reading or copying the file
+     * @param doc Document holding the metadata of the blob
+     * @throws IOException if the put cannot be logged
+     */
+    synchronized void putBlob (DocumentImpl doc) throws IOException {
+        this.indexDocument(doc);
+        this.replaceDocument(doc.getKey(), doc);
+        this.logPut(doc.getKey(), DocumentFormat.BINARY, doc);
+    }
+
+    private void logPut (URI uri, DocumentFormat format, DocumentImpl doc) throws IOException {
+        if (this.wal == null) {
+            return;
+        }
+        if (doc.isBlob()) {
+            this.wal.logPutBlob(uri, doc);
+        }
+        else if (format == DocumentFormat.TXT) {
+            this.wal.logPut(uri, format, doc.getDocumentTxt().getBytes(StandardCharsets.UTF_8));
+        }
+        else {
+            this.wal.logPut(uri, format, doc.getDocumentBinaryData());
+        }
+    }
+
+    /**
+     * Creates a DocumentImpl from the input and adds it to the Trie. Text is decoded from UTF-8 and its words are counted a chunk at a time
+     * as it is read, so indexing takes no more memory than the text itself and its word counts, however large the Document.
+     * @param input the content of the document
      * @param uri uri of the document
      * @param format format of the document
      * @return the DocumentImpl that was created
+     * @throws IOException if there is an issue reading input
      */
-    private DocumentImpl createDocument (byte[] content, URI uri, DocumentFormat format) {
+    private DocumentImpl createDocument (InputStream input, URI uri, DocumentFormat format) throws IOException {
         DocumentImpl doc;
         if (format == DocumentFormat.TXT) {
-            String text = new String(content);
-            doc = new DocumentImpl(uri, text);
+            StringBuilder text = new StringBuilder();
+            TermCounts terms = new Tokenizer(Analyzer.DEFAULT, this.trie.getDictionary()).read(new InputStreamReader(input, StandardCharsets.UTF_8), text).getTermCounts();
+            doc = new DocumentImpl(uri, text.toString(), terms);
         }
         else {
-            doc = new DocumentImpl(uri, content);
-        }
-        for (String word : doc.getWords()) {
-            this.trie.put(word, doc.getKey());
+            doc = this.createBinaryDocument(input, uri);
         }
+        this.indexDocument(doc);
         return doc;
     }
 
+    /**
+     * Reads the input, except that in blob mode (see DocumentPersistenceManager.setBlobThreshold) only the first bytes are read, up to
+     * one byte over the threshold; the rest of a blob is streamed straight to its file
+     * @param input
+     * @param uri
+     * @return the DocumentImpl that was created
+     * @throws IOException
+     */
+    private DocumentImpl createBinaryDocument (InputStream input, URI uri) throws IOException {
+        int threshold = this.pm.getBlobThreshold();
+        if (threshold < 0) {
+            return new DocumentImpl(uri, input.readAllBytes());
+        }
+        byte[] content = input.readNBytes(threshold + 1);
+        return content.length > threshold ? this.pm.writeBlob(uri, content, input) : new DocumentImpl(uri, content);
+    }
+
+    /**
+     * Adds every word of the Document to the Trie, along with the number of times it appears
+     * @param doc
+     */
+    private void indexDocument (DocumentImpl doc) {
+        for (Map.Entry<String, Integer> word : doc.getWordMap().entrySet()) {
+            this.trie.put(word.getKey(), doc.getKey(), word.getValue());
+        }
+    }
+
+    /**
+     * Removes every word of the Document from the Trie
+     * @param doc
+     */
+    private void unindexDocument (DocumentImpl doc) {
+        for (String word : doc.getWordMap().keySet()) {
+            this.trie.delete(word, doc.getKey());
+        }
+    }
+
     /**
      * @param uri the unique identifier of the Document to get
      * @return the given Document
      */
     @Override
-    public Document getDocument (URI uri) {
-        DocumentImpl doc;
-        File file = new File(dir, (uri.getAuthority() + uri.getPath() + ".json"));
-        if (file.exists()) {
-            doc = this.storage.get(uri);
-            this.addToHeapAndUsage(doc, System.nanoTime());
-            return doc;
+    public synchronized Document getDocument (URI uri) {
+        return this.use(uri, System.nanoTime());
+    }
+
+    /**
+     * Gets the Document without waiting for it to be read from disk (see AsyncDocumentStore)
+     * @param uri the unique identifier of the Document to get
+     * @return future of the Document, as getDocument would return it
+     */
+    synchronized CompletableFuture<Document> getDocumentAsync (URI uri) {
+        if (!this.storage.isOnDisk(uri)) {
+            return CompletableFuture.completedFuture(this.getDocument(uri));
         }
-        else if (this.storage.get(uri) == null) {
+        //if the read fails, install falls back to reading the Document synchronously. install takes the store's lock and may wait for
+        //evictions to be written, so it runs off the I/O threads, which would otherwise be tied up waiting for the lock
+        long version = this.storage.getVersion(uri);
+        return this.pm.deserializeAsync(uri).handleAsync((doc, e) -> this.install(uri, (DocumentImpl)doc, version));
+    }
+
+    /**
+     * Puts a Document which was read from disk asynchronously back into memory, unless the store has changed it in the meantime, and marks it used
+     * @param uri
+     * @param doc the Document that was read, or null if it could not be
+     * @param version the version of the uri in the BTree when the read started
+     * @return the Document now held at the uri
+     */
+    private synchronized Document install (URI uri, DocumentImpl doc, long version) {
+        if (doc != null) {
+            this.storage.putLoaded(uri, doc, version);
+        }
+        return this.use(uri, System.nanoTime());
+    }
+
+    /**
+     * Gets the Document and updates its last use time, bringing it into the Heap and Usage if it was not in memory
+     * @param uri
+     * @param useTime
+     * @return the Document, or null if there is none
+     */
+    private DocumentImpl use (URI uri, long useTime) {
+        DocumentImpl doc = this.storage.get(uri);
+        if (doc == null) {
             return null;
         }
-        else {
-            doc = this.storage.get(uri);
-            doc.setLastUseTime(System.nanoTime());
+        if (this.heap.contains(new LUT(uri))) {
+            doc.setLastUseTime(useTime);
             this.heap.reHeapify(new LUT(uri));
-            return doc;
         }
+        else {
+            this.addToHeapAndUsage(doc, useTime);
+        }
+        return doc;
     }
 
     /**
@@ -190,32 +503,59 @@ public class DocumentStoreImpl implements DocumentStore {
      * @return true if the Document is deleted, false if no Document exists with that URI
      */
     @Override
-    public boolean deleteDocument (URI uri) {
+    public synchronized boolean deleteDocument (URI uri) {
         DocumentImpl doc = this.storage.get(uri);
         if (doc == null) {
             Function<URI, Boolean> function = functionUri -> true;
             Undoable command = new GenericCommand<URI>(uri, function); 
             this.commandStack.push(command);
+            this.log(wal -> wal.logDelete(uri));
             return false;
         }
         else {
             DocumentImpl deletion = this.removeDocument(doc);
             this.addGenericCommand(doc.getKey(), null, deletion);
+            this.log(wal -> wal.logDelete(uri));
             return true;
         }
     }
 
     /**
-     * Removes the Document from the Trie, Heap, documentCount/Bytes (usage), and BTree.
+     * Operation which appends a record to the WriteAheadLog
+     */
+    private interface LogOperation {
+        void apply (WriteAheadLog wal) throws IOException;
+    }
+
+    /**
+     * Logs an operation which has been applied, if this DocumentStore has a WriteAheadLog
+     * @param operation
+     * @throws UncheckedIOException if the record cannot be written
+     */
+    private void log (LogOperation operation) {
+        if (this.wal == null) {
+            return;
+        }
+        try {
+            operation.apply(this.wal);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Removes the Document from the Trie, Heap, documentCount/Bytes (usage), and BTree, and frees its doc id.
+     * Nothing holds the id after that (undo commands hold the Document, which gets an id again when it is put back).
      * @param doc
      * @return deleted Document
      */
     private DocumentImpl removeDocument (DocumentImpl doc) {
-        for (String word : doc.getWords()) {
-            this.trie.delete(word, doc.getKey());
-        }
+        this.unindexDocument(doc);
         this.removeFromHeapAndUsage(doc);
-        return this.storage.put(doc.getKey(), null);
+        DocumentImpl deletion = this.storage.put(doc.getKey(), null);
+        this.docIds.free(doc.getKey());
+        return deletion;
     }
 
     /**
@@ -227,18 +567,17 @@ public class DocumentStoreImpl implements DocumentStore {
     private void addGenericCommand (URI uri, DocumentImpl doc, DocumentImpl prevDoc) {
         Function<URI, Boolean> function = functionUri -> {
             if (doc != null) {
-                for (String word : doc.getWords()) {
-                    this.trie.delete(word, doc.getKey());
-                }
+                this.unindexDocument(doc);
                 this.removeFromHeapAndUsage(doc);
             }
             this.storage.put(functionUri, prevDoc);
             if (prevDoc != null) {
-                for (String word : prevDoc.getWords()) {
-                    this.trie.put(word, prevDoc.getKey());
-                }
+                this.indexDocument(prevDoc);
                 this.addToHeapAndUsage(prevDoc, System.nanoTime());
             }
+            else {
+                this.docIds.free(functionUri);
+            }
             return true;
         };
         Undoable command = new GenericCommand<URI>(uri, function); 
@@ -255,9 +594,7 @@ public class DocumentStoreImpl implements DocumentStore {
     private void addGenericCommand (URI uri, DocumentImpl doc, DocumentImpl prevDoc, LinkedHashSet<URI> removedUris) {
         Function<URI, Boolean> function = functionUri -> {
             if (doc != null) {
-                for (String word : doc.getWords()) {
-                    this.trie.delete(word, doc.getKey());
-                }
+                this.unindexDocument(doc);
                 this.removeFromHeapAndUsage(doc);
             }
             for (URI u : removedUris) {
@@ -267,11 +604,12 @@ public class DocumentStoreImpl implements DocumentStore {
             }
             this.storage.put(functionUri, prevDoc);
             if (prevDoc != null) {
-                for (String word : prevDoc.getWords()) {
-                    this.trie.put(word, prevDoc.getKey());
-                }
+                this.indexDocument(prevDoc);
                 this.addToHeapAndUsage(prevDoc, System.nanoTime());
             }
+            else {
+                this.docIds.free(functionUri);
+            }
             return true;
         };
         Undoable command = new GenericCommand<URI>(uri, function); 
@@ -283,11 +621,12 @@ public class DocumentStoreImpl implements DocumentStore {
      * @throws IllegalStateException if there are no actions to be undone, i.e. the commandStack is empty
      */
     @Override
-    public void undo () throws IllegalStateException {
+    public synchronized void undo () throws IllegalStateException {
         if (this.commandStack.peek() == null) {
             throw new IllegalStateException("There is no command in the commandStack to be undone.");
         }
         this.commandStack.pop().undo();
+        this.log(wal -> wal.logUndo(null));
     }
 
     /**
@@ -296,7 +635,7 @@ public class DocumentStoreImpl implements DocumentStore {
      * @throws IllegalStateException if there are no actions on the commandStack for the given URI
      */
     @Override
-    public void undo (URI uri) throws IllegalStateException {
+    public synchronized void undo (URI uri) throws IllegalStateException {
         if (uri == null) {
             throw new IllegalArgumentException("URI must not be null.");
         }
@@ -323,6 +662,7 @@ public class DocumentStoreImpl implements DocumentStore {
             throw new IllegalStateException("There is no command with this URI to be undone.");
         }
         this.undo(uri, current);
+        this.log(wal -> wal.logUndo(uri));
     }
 
     /**
@@ -351,48 +691,91 @@ public class DocumentStoreImpl implements DocumentStore {
      */
     @Override
     public List<Document> search (String keyword) {
+        return this.search(keyword, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Retrieve the k Documents in which the given keyword appears the most (see RankedSearch).
+     * Only the returned Documents count as used.
+     * @param keyword
+     * @param k maximum number of Documents to return
+     * @return a List of at most k matches, in descending order of the number of times the keyword appears
+     */
+    List<Document> search (String keyword, int k) {
         if (keyword == null) {
             throw new IllegalArgumentException("Keyword must not be null.");
         }
-        List<Document> matches = new ArrayList<>();
-        keyword = this.stringFormatter(keyword);
-        long currentUseTime = System.nanoTime();
-        for (URI uri : trie.getAllSorted(keyword, this.createComparator(keyword))) {
-            DocumentImpl doc;
-            File file = new File(dir, (uri.getAuthority() + uri.getPath() + ".json"));
-            if (file.exists()) {
-                doc = this.storage.get(uri);
-                this.addToHeapAndUsage(doc, currentUseTime);
-            }
-            else {
-                doc = this.storage.get(uri);
-                doc.setLastUseTime(currentUseTime);
-                this.heap.reHeapify(new LUT(uri));
+        String normalized = Analyzer.DEFAULT.normalize(keyword);
+        return this.useAll(() -> this.trie.getTopRanked(normalized, k));
+    }
+
+    /**
+     * Uses every Document in the ranking, reading those on disk ahead of time. The ranking is taken, the reads started, and the Documents
+     * used under the store's lock, but the reads are waited for outside of it, since completing them may need the lock (see getDocumentAsync).
+     * Documents deleted in the meantime are left out.
+     * @param ranking search results, in ranked order
+     * @return the Documents, in the same order
+     */
+    private List<Document> useAll (Supplier<List<URI>> ranking) {
+        List<URI> uris;
+        Map<URI, Long> versions = new HashMap<>();
+        Map<URI, CompletableFuture<Document>> reads;
+        synchronized (this) {
+            uris = ranking.get();
+            reads = this.prefetch(uris, versions);
+        }
+        for (CompletableFuture<Document> read : reads.values()) {
+            read.handle((doc, e) -> null).join();
+        }
+        synchronized (this) {
+            this.install(reads, versions);
+            List<Document> matches = new ArrayList<>();
+            long currentUseTime = System.nanoTime();
+            for (URI uri : uris) {
+                DocumentImpl doc = this.use(uri, currentUseTime);
+                if (doc != null) {
+                    matches.add(doc);
+                }
             }
-            matches.add(doc);
+            return matches;
         }
-        return matches;
     }
 
     /**
-     * Compares two Documents based on number of occurrences of the given word
-     * Results come in *descending* order of appearances
-     * @param word
-     * @return
+     * Starts reading the Documents which are on disk, with all of the reads in flight at once on the PersistenceManager's I/O threads
+     * instead of one after another
+     * @param uris search results, in ranked order
+     * @param versions map to record the version of each Document being read in
+     * @return the reads, by URI
      */
-    private Comparator<URI> createComparator (String word) {
-        Comparator<URI> comparator = (URI uri1, URI uri2) -> {
-            if (this.storage.get(uri1).wordCount(word) > this.storage.get(uri2).wordCount(word)) {
-                return -1;
+    private Map<URI, CompletableFuture<Document>> prefetch (List<URI> uris, Map<URI, Long> versions) {
+        Map<URI, CompletableFuture<Document>> reads = new LinkedHashMap<>();
+        for (URI uri : uris) {
+            if (this.storage.isOnDisk(uri)) {
+                versions.put(uri, this.storage.getVersion(uri));
+                reads.put(uri, this.pm.deserializeAsync(uri));
             }
-            else if (this.storage.get(uri1).wordCount(word) < this.storage.get(uri2).wordCount(word)) {
-                return 1;
+        }
+        return reads;
+    }
+
+    /**
+     * Puts the Documents which prefetch read back into memory, unless they have changed since. They are not put into the Heap and Usage here; that is left to use
+     * @param reads finished reads, by URI
+     * @param versions the version of each Document when its read started
+     */
+    private void install (Map<URI, CompletableFuture<Document>> reads, Map<URI, Long> versions) {
+        for (Map.Entry<URI, CompletableFuture<Document>> read : reads.entrySet()) {
+            try {
+                Document doc = read.getValue().join();
+                if (doc != null) {
+                    this.storage.putLoaded(read.getKey(), (DocumentImpl) doc, versions.get(read.getKey()));
+                }
             }
-            else {
-                return 0;
+            catch (CompletionException e) {
+                //use reads the Document synchronously instead
             }
-        };
-        return comparator;
+        }
     }
 
     /**
@@ -404,86 +787,44 @@ public class DocumentStoreImpl implements DocumentStore {
      */
     @Override
     public List<Document> searchByPrefix (String keywordPrefix) {
-        if (keywordPrefix == null) {
-            throw new IllegalArgumentException("Keyword must not be null.");
-        }
-        List<Document> matches = new ArrayList<>();
-        keywordPrefix = this.stringFormatter(keywordPrefix);
-        long currentUseTime = System.nanoTime();
-        for (URI uri : trie.getAllWithPrefixSorted(keywordPrefix, this.createPrefixComparator(keywordPrefix))) {
-            DocumentImpl doc;
-            File file = new File(dir, (uri.getAuthority() + uri.getPath() + ".json"));
-            if (file.exists()) {
-                doc = this.storage.get(uri);
-                this.addToHeapAndUsage(doc, currentUseTime);
-            }
-            else {
-                doc = this.storage.get(uri);
-                doc.setLastUseTime(currentUseTime);
-                this.heap.reHeapify(new LUT(uri));
-            }
-            matches.add(doc);
-        }
-        return matches;
+        return this.searchByPrefix(keywordPrefix, Integer.MAX_VALUE);
     }
 
     /**
-     * Compares two Documents based on number of occurrences of the given prefix
-     * Results come in *descending* order of appearances
-     * @param prefix prefix which will already be formatted
-     * @return
+     * Retrieve the k Documents in which words with the given prefix appear the most (see RankedSearch).
+     * Only the returned Documents count as used.
+     * @param keywordPrefix
+     * @param k maximum number of Documents to return
+     * @return a List of at most k matches, in descending order of the number of times the prefix appears
      */
-    private Comparator<URI> createPrefixComparator (String prefix) {
-        Comparator<URI> comparator = (URI uri1, URI uri2) -> {
-            if (this.prefixCount(this.storage.get(uri1), prefix) > this.prefixCount(this.storage.get(uri2), prefix)) {
-                return -1;
-            }
-            else if (this.prefixCount(this.storage.get(uri1), prefix) < this.prefixCount(this.storage.get(uri2), prefix)) {
-                return 1;
-            }
-            else {
-                return 0;
-            }
-        };
-        return comparator;
-    }
-
-    /**
-     * How many times does a word with the given prefix appear in the Document?
-     * @param doc
-     * @param prefix prefix which will already be formatted
-     * @return the number of times words with the given prefix appears in the document. If it's a binary document, return 0.
-     */
-    private int prefixCount (Document doc, String prefix) {
-        int count = 0;
-        for (String word : doc.getWords()) {
-            if (word.startsWith(prefix)) {
-                count += doc.wordCount(word);
-            }
+    List<Document> searchByPrefix (String keywordPrefix, int k) {
+        if (keywordPrefix == null) {
+            throw new IllegalArgumentException("Keyword must not be null.");
         }
-        return count;
+        String normalized = Analyzer.DEFAULT.normalize(keywordPrefix);
+        return this.useAll(() -> this.trie.getTopWithPrefixRanked(normalized, k));
     }
-    
+
     /**
      * Completely remove any trace of any Document which contains the given keyword
      * @param keyword
      * @return a Set of URIs of the Documents that were deleted.
      */
     @Override
-    public Set<URI> deleteAll (String keyword) {
+    public synchronized Set<URI> deleteAll (String keyword) {
         if (keyword == null) {
             throw new IllegalArgumentException("Keyword must not be null.");
         }
-        keyword = this.stringFormatter(keyword);
-        Set<URI> deletions = trie.deleteAll(keyword);
+        String formatted = Analyzer.DEFAULT.normalize(keyword);
+        Set<URI> deletions = trie.deleteAll(formatted);
         Set<DocumentImpl> deletedDocs = new HashSet<>();
         for (URI uri : deletions) {
             DocumentImpl doc = this.storage.get(uri);
             deletedDocs.add(doc);
-            this.removeFromHeapAndUsage(doc);
-            this.storage.put(uri, null);
+            this.removeDocument(doc);
         }
         this.addCommandSet(deletedDocs);
+        this.log(wal -> wal.logDeleteAll(keyword));
         return deletions;
     }
 
@@ -494,20 +835,20 @@ public class DocumentStoreImpl implements DocumentStore {
      * @return a Set of URIs of the documents that were deleted.
      */
     @Override
-    public Set<URI> deleteAllWithPrefix (String keywordPrefix) {
+    public synchronized Set<URI> deleteAllWithPrefix (String keywordPrefix) {
         if (keywordPrefix == null) {
             throw new IllegalArgumentException("Keyword must not be null.");
         }
-        keywordPrefix = this.stringFormatter(keywordPrefix);
-        Set<URI> deletions = trie.deleteAllWithPrefix(keywordPrefix);
+        String formatted = Analyzer.DEFAULT.normalize(keywordPrefix);
+        Set<URI> deletions = trie.deleteAllWithPrefix(formatted);
         Set<DocumentImpl> deletedDocs = new HashSet<>();
         for (URI uri : deletions) {
             DocumentImpl doc = this.storage.get(uri);
             deletedDocs.add(doc);
-            this.removeFromHeapAndUsage(doc);
-            this.storage.put(uri, null);
+            this.removeDocument(doc);
         }
         this.addCommandSet(deletedDocs);
+        this.log(wal -> wal.logDeleteAllWithPrefix(keywordPrefix));
         return deletions;
     }
 
@@ -520,9 +861,7 @@ public class DocumentStoreImpl implements DocumentStore {
         for (DocumentImpl doc : docSet) {
             Function<URI, Boolean> function = functionUri -> {
                 this.storage.put(functionUri, doc);
-                for (String word : doc.getWords()) {
-                    this.trie.put(word, doc.getKey());
-                }
+                this.indexDocument(doc);
                 this.addToHeapAndUsage(doc, System.nanoTime());
                 return true;
             };
@@ -532,23 +871,12 @@ public class DocumentStoreImpl implements DocumentStore {
         this.commandStack.push(commandSet);
     }
     
-    /**
-     * Formats given string to the appropriate form (only letters and numbers, all same case)
-     * @param string string to format
-     * @return formatted string
-     */
-    private String stringFormatter (String string) {
-        string = string.replaceAll("[^A-Za-z0-9 ]", "");
-        string = string.toUpperCase();
-        return string;
-    }
-
     /**
      * Set maximum number of Documents that may be stored
      * @param limit
      */
     @Override
-    public void setMaxDocumentCount (int limit) {
+    public synchronized void setMaxDocumentCount (int limit) {
         if (limit < 0) {
             throw new IllegalArgumentException("Limit must be at least 0.");
         }
@@ -561,7 +889,7 @@ public class DocumentStoreImpl implements DocumentStore {
      * @param limit
      */
     @Override
-    public void setMaxDocumentBytes (int limit) {
+    public synchronized void setMaxDocumentBytes (int limit) {
         if (limit < 0) {
             throw new IllegalArgumentException("Limit must be at least 0.");
         }
@@ -578,12 +906,7 @@ public class DocumentStoreImpl implements DocumentStore {
         if (doc == null) {
             throw new IllegalArgumentException("Document must not be null.");
         }
-        if (doc.getDocumentTxt() != null) {
-            return doc.getDocumentTxt().getBytes().length;
-        }
-        else {
-            return doc.getDocumentBinaryData().length;
-        }
+        return doc.getByteCount();
     }
 
     /**
@@ -594,10 +917,15 @@ public class DocumentStoreImpl implements DocumentStore {
      */
     private LinkedHashSet<URI> addToHeapAndUsage (DocumentImpl doc, long useTime) {
         doc.setLastUseTime(useTime);
+        if (doc.isBlob()) {
+            //only the metadata of a blob is in memory, so it is never moved to disk
+            return new LinkedHashSet<>();
+        }
         if (((this.maxDocumentCount != null) && (this.maxDocumentCount == 0)) || ((this.maxDocumentBytes != null) && (this.getBytes(doc) > this.maxDocumentBytes))) {
             return this.removeAllFromHeapAndUsage(doc);
         }
         LinkedHashSet<URI> removedUris = new LinkedHashSet<>(this.prepareHeap(doc));
+        this.setResident(doc.getKey(), doc);
         this.heap.insert(new LUT(doc.getKey()));
         this.documentCount++;
         this.documentBytes += this.getBytes(doc);
@@ -605,15 +933,37 @@ public class DocumentStoreImpl implements DocumentStore {
     }
 
     /**
-     * Removes Document from Heap as well as Usage (documentCount/Bytes)
+     * Removes Document from Heap as well as Usage (documentCount/Bytes), if it is in memory
      * @param doc
      */
     private void removeFromHeapAndUsage (DocumentImpl doc) {
-        doc.setLastUseTime(Long.MIN_VALUE);
-        this.heap.reHeapify(new LUT(doc.getKey()));
-        this.heap.remove(); //code breaks here - removes doc1 and not doc3
+        LUT lut = new LUT(doc.getKey());
+        if (!this.heap.contains(lut)) {
+            return;
+        }
+        //the Heap orders the resident instance, which may not be the one passed in if the Document has been to disk and back
+        DocumentImpl residentDoc = this.resident[lut.id];
+        residentDoc.setLastUseTime(Long.MIN_VALUE);
+        this.heap.reHeapify(lut);
+        this.heap.remove();
+        this.setResident(doc.getKey(), null);
         this.documentCount--;
-        this.documentBytes -= this.getBytes(doc);
+        this.documentBytes -= this.getBytes(residentDoc);
+    }
+
+    /**
+     * @param uri
+     * @param doc the Document now in the Heap at the URI, or null if there is none
+     * @return the Document which was in the Heap at the URI, or null if there was none
+     */
+    private DocumentImpl setResident (URI uri, DocumentImpl doc) {
+        int id = this.docIds.getId(uri);
+        if (id >= this.resident.length) {
+            this.resident = Arrays.copyOf(this.resident, Math.max(id + 1, this.resident.length * 2));
+        }
+        DocumentImpl previous = this.resident[id];
+        this.resident[id] = doc;
+        return previous;
     }
 
     /**
@@ -624,12 +974,19 @@ public class DocumentStoreImpl implements DocumentStore {
      */
     private LinkedHashSet<URI> removeAllFromHeapAndUsage (DocumentImpl doc) {
         doc.setLastUseTime(System.nanoTime());
+        this.setResident(doc.getKey(), doc);
         this.heap.insert(new LUT(doc.getKey()));
         LinkedHashSet<URI> removedUris = new LinkedHashSet<>();
         this.documentCount++;
         this.documentBytes += this.getBytes(doc);
-        while (this.documentCount > 0) {
-            removedUris.add(this.moveDocumentToDisk());
+        this.pm.deferWrites();
+        try {
+            while (this.documentCount > 0) {
+                removedUris.add(this.moveDocumentToDisk());
+            }
+        }
+        finally {
+            removedUris.removeAll(this.awaitEvictions());
         }
         return removedUris;
     }
@@ -645,6 +1002,7 @@ public class DocumentStoreImpl implements DocumentStore {
         this.documentCount--;
         this.documentBytes -= this.getBytes(prevDoc);
         doc.setLastUseTime(useTime);
+        this.setResident(doc.getKey(), doc);
         LinkedHashSet<URI> removedUris = new LinkedHashSet<>(this.prepareHeap(doc));
         this.heap.reHeapify(new LUT(doc.getKey()));
         this.documentCount++;
@@ -660,21 +1018,27 @@ public class DocumentStoreImpl implements DocumentStore {
         if (this.maxDocumentCount == null && this.maxDocumentBytes == null) {
             return;
         }
-        else if (this.maxDocumentCount == null) {
-            while (this.documentBytes > this.maxDocumentBytes) {
-                this.moveDocumentToDisk();
+        this.pm.deferWrites();
+        try {
+            if (this.maxDocumentCount == null) {
+                while (this.documentBytes > this.maxDocumentBytes) {
+                    this.moveDocumentToDisk();
+                }
             }
-        }
-        else if (this.maxDocumentBytes == null) {
-            while (this.documentCount > this.maxDocumentCount) {
-                this.moveDocumentToDisk();
+            else if (this.maxDocumentBytes == null) {
+                while (this.documentCount > this.maxDocumentCount) {
+                    this.moveDocumentToDisk();
+                }
             }
-        }
-        else {
-            while ((this.documentCount > this.maxDocumentCount) || (this.documentBytes > this.maxDocumentBytes)) {
-                this.moveDocumentToDisk();
+            else {
+                while ((this.documentCount > this.maxDocumentCount) || (this.documentBytes > this.maxDocumentBytes)) {
+                    this.moveDocumentToDisk();
+                }
             }
         }
+        finally {
+            this.awaitEvictions();
+        }
     }
 
     /**
@@ -687,41 +1051,96 @@ public class DocumentStoreImpl implements DocumentStore {
         if (this.maxDocumentCount == null && this.maxDocumentBytes == null) {
             return removedUris;
         }
-        else if (this.maxDocumentCount == null) {
-            while ((this.documentBytes + this.getBytes(doc)) > this.maxDocumentBytes) {
-                removedUris.add(this.moveDocumentToDisk());
+        this.pm.deferWrites();
+        try {
+            if (this.maxDocumentCount == null) {
+                while ((this.documentBytes + this.getBytes(doc)) > this.maxDocumentBytes) {
+                    removedUris.add(this.moveDocumentToDisk());
+                }
+                return removedUris;
             }
-            return removedUris;
-        }
-        else if (this.maxDocumentBytes == null) {
-            while ((this.documentCount + 1) > this.maxDocumentCount) {
-                removedUris.add(this.moveDocumentToDisk());
+            else if (this.maxDocumentBytes == null) {
+                while ((this.documentCount + 1) > this.maxDocumentCount) {
+                    removedUris.add(this.moveDocumentToDisk());
+                }
+                return removedUris;
+            }
+            else {
+                while (((this.documentCount + 1) > this.maxDocumentCount) || ((this.documentBytes + this.getBytes(doc)) > this.maxDocumentBytes)) {
+                    removedUris.add(this.moveDocumentToDisk());
+                }
+                return removedUris;
             }
-            return removedUris;
         }
-        else {
-            while (((this.documentCount + 1) > this.maxDocumentCount) || ((this.documentBytes + this.getBytes(doc)) > this.maxDocumentBytes)) {
-                removedUris.add(this.moveDocumentToDisk());
+        finally {
+            removedUris.removeAll(this.awaitEvictions());
+        }
+    }
+
+    /**
+     * Waits for the files of the Documents moved to disk since deferWrites was called on the PersistenceManager to be written;
+     * their writes run on the I/O threads of each base directory at once. A Document whose file could not be written is put back into
+     * memory, and the Heap and Usage, rather than lost; it is written again when it is next moved to disk (or by the next checkpoint,
+     * which fails until it can be), so the store may be over its limits until then.
+     * @return URIs of the Documents which were put back into memory
+     * @throws UncheckedIOException if a file could not be written and its Document could not be put back (e.g. one spilled from the warm tier)
+     */
+    private Set<URI> awaitEvictions () {
+        Map<URI, Exception> failures = new HashMap<>(this.evictionFailures);
+        failures.putAll(this.pm.awaitWriteFailures());
+        Set<URI> restored = new HashSet<>();
+        Exception lost = null;
+        for (Map.Entry<URI, Exception> failure : failures.entrySet()) {
+            URI uri = failure.getKey();
+            DocumentImpl doc = this.evicted.get(uri);
+            //a Document which could not be moved at all is still in the BTree's memory, and only has to go back into the Heap
+            if (doc != null && (this.evictionFailures.containsKey(uri) || this.storage.putUnwritten(uri, doc, this.evictedVersions.get(uri)))) {
+                this.restore(doc);
+                restored.add(uri);
+            }
+            else if (lost == null) {
+                lost = failure.getValue();
             }
-            return removedUris;
         }
+        this.evicted.clear();
+        this.evictedVersions.clear();
+        this.evictionFailures.clear();
+        if (lost != null) {
+            throw new UncheckedIOException(new IOException("Could not write a Document to disk.", lost));
+        }
+        return restored;
     }
 
     /**
-     * Moves the least recently used Document to disk.
+     * Puts a Document whose file could not be written back into the Heap and Usage (documentCount/Bytes), as the most recently used
+     * @param doc
+     */
+    private void restore (DocumentImpl doc) {
+        doc.setLastUseTime(System.nanoTime());
+        this.setResident(doc.getKey(), doc);
+        this.heap.insert(new LUT(doc.getKey()));
+        this.documentCount++;
+        this.documentBytes += this.getBytes(doc);
+    }
+
+    /**
+     * Moves the least recently used Document to disk (its file is written once awaitEvictions is called).
      * This entails deleting it from the Heap and Usage, and setting the URI's value in the BTree to a serialized Document.
      * @return URI of the Document that was moved to disk
      */
     private URI moveDocumentToDisk() {
         URI uri = this.heap.remove().getURI();
-        DocumentImpl doc = this.storage.get(uri);
+        DocumentImpl doc = this.setResident(uri, null);
         this.documentCount--;
         this.documentBytes -= this.getBytes(doc);
+        this.evicted.put(uri, doc);
         try {
             this.storage.moveToDisk(uri);
+            this.evictedVersions.put(uri, this.storage.getVersion(uri));
         }
         catch (Exception e) {
-            e.printStackTrace();
+            //awaitEvictions puts it back into the Heap once the other Documents have been moved, so it is not picked again in the meantime
+            this.evictionFailures.put(uri, e);
         }
         return uri;
     }
@@ -0,0 +1,117 @@
+package edu.yu.cs.com1320.project.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streaming access to the contents of the Documents in a DocumentStoreImpl. The contents of a blob (see
+ * DocumentPersistenceManager.setBlobThreshold) are read straight from its file and are never copied into the Java heap as a whole;
+ * transferTo lets the operating system copy them to the target channel directly. Other Documents are streamed from memory.
+ * The Document counts as used, as with DocumentStore.getDocument.
+ */
+public class DocumentStreams {
+
+    private DocumentStoreImpl store;
+
+    /**
+     * Constructor for DocumentStreams
+     * @param store the store to read from
+     */
+    public DocumentStreams (DocumentStoreImpl store) {
+        if (store == null) {
+            throw new IllegalArgumentException("DocumentStore must not be null.");
+        }
+        this.store = store;
+    }
+
+    /**
+     * @param uri the unique identifier of the Document
+     * @return stream of the Document's binary data, or of its text in UTF-8, or null if there is no Document with that URI
+     * @throws IOException if the blob file cannot be opened
+     */
+    public InputStream openStream (URI uri) throws IOException {
+        DocumentImpl doc = this.getDocument(uri);
+        if (doc == null) {
+            return null;
+        }
+        if (doc.isBlob()) {
+            return Channels.newInputStream(FileChannel.open(doc.getBlobFile().toPath(), StandardOpenOption.READ));
+        }
+        return new ByteArrayInputStream(this.getBytes(doc));
+    }
+
+    /**
+     * @param uri the unique identifier of the Document
+     * @return channel of the Document's binary data, or of its text in UTF-8, or null if there is no Document with that URI
+     * @throws IOException if the blob file cannot be opened
+     */
+    public ReadableByteChannel openChannel (URI uri) throws IOException {
+        DocumentImpl doc = this.getDocument(uri);
+        if (doc == null) {
+            return null;
+        }
+        if (doc.isBlob()) {
+            return FileChannel.open(doc.getBlobFile().toPath(), StandardOpenOption.READ);
+        }
+        return Channels.newChannel(new ByteArrayInputStream(this.getBytes(doc)));
+    }
+
+    /**
+     * Writes the Document's binary data, or its text in UTF-8, to the target
+     * @param uri the unique identifier of the Document
+     * @param target
+     * @return number of bytes written, or -1 if there is no Document with that URI
+     * @throws IOException if the blob file cannot be read or the target cannot be written
+     */
+    public long transferTo (URI uri, WritableByteChannel target) throws IOException {
+        if (target == null) {
+            throw new IllegalArgumentException("Target must not be null.");
+        }
+        DocumentImpl doc = this.getDocument(uri);
+        if (doc == null) {
+            return -1;
+        }
+        if (!doc.isBlob()) {
+            ByteBuffer buffer = ByteBuffer.wrap(this.getBytes(doc));
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            return buffer.capacity();
+        }
+        try (FileChannel channel = FileChannel.open(doc.getBlobFile().toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+            return size;
+        }
+    }
+
+    private DocumentImpl getDocument (URI uri) {
+        if (uri == null) {
+            throw new IllegalArgumentException("URI must not be null.");
+        }
+        return (DocumentImpl)this.store.getDocument(uri);
+    }
+
+    /**
+     * @param doc a Document which is not a blob
+     * @return its binary data, or its text in UTF-8
+     */
+    private byte[] getBytes (DocumentImpl doc) {
+        if (doc.getDocumentTxt() != null) {
+            return doc.getDocumentTxt().getBytes(StandardCharsets.UTF_8);
+        }
+        return doc.getDocumentBinaryData();
+    }
+}
@@ -0,0 +1,93 @@
+package edu.yu.cs.com1320.project.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gives every value a dense int id, starting at 0, the first time it is seen, and keeps the one instance of each value it was given.
+ * Structures can then hold ints, or index arrays by them, and translate back to the value only where it is handed out.
+ * Freed ids are reused before new ones are handed out, so the ids (and anything indexed by them) stay as dense as the live values.
+ * A value must only be freed once nothing holds its id any more.
+ * @param <T>
+ */
+class IdAllocator<T> {
+
+    private Map<T, Integer> ids;
+    private List<T> values; //index is the id, null for a freed id
+    private Deque<Integer> freeIds;
+
+    IdAllocator () {
+        this.ids = new HashMap<>();
+        this.values = new ArrayList<>();
+        this.freeIds = new ArrayDeque<>();
+    }
+
+    /**
+     * @param value
+     * @return the id of the value, which is assigned if the value is new
+     */
+    synchronized int getId (T value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value must not be null.");
+        }
+        Integer id = this.ids.get(value);
+        if (id == null) {
+            if (this.freeIds.isEmpty()) {
+                id = this.values.size();
+                this.values.add(value);
+            }
+            else {
+                id = this.freeIds.pop();
+                this.values.set(id, value);
+            }
+            this.ids.put(value, id);
+        }
+        return id;
+    }
+
+    /**
+     * Frees the value's id, to be given to the next new value
+     * @param value
+     * @return true if the value had an id
+     */
+    synchronized boolean free (T value) {
+        Integer id = this.ids.remove(value);
+        if (id == null) {
+            return false;
+        }
+        this.values.set(id, null);
+        this.freeIds.push(id);
+        return true;
+    }
+
+    /**
+     * @param value
+     * @return the id of the value, or -1 if it has none
+     */
+    synchronized int find (T value) {
+        Integer id = this.ids.get(value);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id
+     * @return the value with the given id
+     */
+    synchronized T get (int id) {
+        if (id < 0 || id >= this.values.size() || this.values.get(id) == null) {
+            throw new IllegalArgumentException("No value has id " + id + ".");
+        }
+        return this.values.get(id);
+    }
+
+    /**
+     * @return number of values which have an id
+     */
+    synchronized int size () {
+        return this.ids.size();
+    }
+}
@@ -0,0 +1,241 @@
+package edu.yu.cs.com1320.project.impl;
+
+import edu.yu.cs.com1320.project.BTree;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact binary image of a DocumentStore's index, written by a checkpoint and loaded on startup so the index does not have to be rebuilt
+ * by reading and re-tokenizing every Document.
+ * Layout: [magic][version][generation], then every key with its residency flag, then every term with its postings as (key number, count) pairs.
+ * The file is memory-mapped for loading.
+ */
+class IndexSnapshot {
+
+    private static final String FILE_NAME = "index.snapshot";
+    private static final int MAGIC = 0x44534958; //"DSIX"
+    private static final int VERSION = 1;
+    private static final byte RESIDENT = 1;
+    private static final int END_OF_TERMS = -1;
+    private static final long WINDOW_SIZE = 1L << 30; //bytes mapped at a time
+
+    private File file;
+
+    /**
+     * Constructor for IndexSnapshot
+     * @param baseDir directory the snapshot is kept in
+     */
+    IndexSnapshot (File baseDir) {
+        if (baseDir == null) {
+            throw new IllegalArgumentException("Base directory must not be null.");
+        }
+        this.file = new File(baseDir, FILE_NAME);
+    }
+
+    /**
+     * @return true if a snapshot has been written
+     */
+    boolean exists () {
+        return this.file.exists();
+    }
+
+    /**
+     * Writes the snapshot to a temporary file, forces it to the storage device and then renames it over the previous snapshot,
+     * so a crash leaves either the old snapshot or the new one.
+     * @param generation number of the checkpoint
+     * @param keys every key in the store
+     * @param resident the keys whose Documents were in memory
+     * @param trie the inverted index, with the number of times each word appears in each Document
+     * @throws IOException
+     */
+    void write (long generation, List<URI> keys, Set<URI> resident, TrieImpl<URI> trie) throws IOException {
+        this.file.getParentFile().mkdirs();
+        File temp = new File(this.file.getParentFile(), FILE_NAME + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            Map<URI, Integer> numbers = this.writeKeys(out, keys, resident);
+            this.writeTerms(out, trie, numbers);
+            out.flush();
+            stream.getFD().sync();
+        }
+        Files.move(temp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.syncDirectory(this.file.getParentFile().toPath());
+    }
+
+    /**
+     * Forces the rename of the snapshot into its directory to the storage device, as DocumentPersistenceManager does for Document files
+     * @param dir
+     */
+    private void syncDirectory (Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+        catch (IOException e) {
+            //e.g. on Windows, where directories cannot be opened; the rename is as durable as the platform makes it
+        }
+    }
+
+    /**
+     * @return the number given to each key, which the postings refer to it by
+     */
+    private Map<URI, Integer> writeKeys (DataOutputStream out, List<URI> keys, Set<URI> resident) throws IOException {
+        Map<URI, Integer> numbers = new HashMap<>(keys.size() * 2);
+        out.writeInt(keys.size());
+        for (URI uri : keys) {
+            numbers.put(uri, numbers.size());
+            this.writeString(out, uri.toString());
+            out.writeByte(resident.contains(uri) ? RESIDENT : 0);
+        }
+        return numbers;
+    }
+
+    private void writeTerms (DataOutputStream out, TrieImpl<URI> trie, Map<URI, Integer> numbers) throws IOException {
+        try {
+            trie.forEach((term, postings) -> {
+                try {
+                    this.writeString(out, term);
+                    out.writeInt(postings.size());
+                    for (Map.Entry<URI, Integer> posting : postings.entrySet()) {
+                        out.writeInt(numbers.get(posting.getKey()));
+                        out.writeInt(posting.getValue());
+                    }
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.writeInt(END_OF_TERMS);
+    }
+
+    private void writeString (DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Loads the snapshot into empty index structures: every key is added to the BTree as already on disk, and every posting is added to the Trie.
+     * @param btree
+     * @param trie
+     * @param resident filled with the keys whose Documents were in memory at the checkpoint
+     * @return the generation of the snapshot
+     * @throws IOException if the snapshot cannot be read or is not a snapshot
+     */
+    long load (BTree<URI, ?> btree, TrieImpl<URI> trie, List<URI> resident) throws IOException {
+        try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+            MappedReader in = new MappedReader(channel);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(this.file + " is not an index snapshot.");
+            }
+            long generation = in.readLong();
+            URI[] keys = new URI[in.readInt()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = this.toUri(in.readString());
+                btree.putOnDisk(keys[i]);
+                if (in.readByte() == RESIDENT) {
+                    resident.add(keys[i]);
+                }
+            }
+            for (String term = in.readString(); term != null; term = in.readString()) {
+                for (int postings = in.readInt(); postings > 0; postings--) {
+                    trie.put(term, keys[in.readInt()], in.readInt());
+                }
+            }
+            return generation;
+        }
+    }
+
+    private URI toUri (String uri) throws IOException {
+        try {
+            return new URI(uri);
+        }
+        catch (URISyntaxException e) {
+            throw new IOException("Index snapshot contains an invalid URI.", e);
+        }
+    }
+
+    /**
+     * Reads a file through a window of it mapped into memory, moving the window forward as the file is read.
+     */
+    private static final class MappedReader {
+
+        private FileChannel channel;
+        private long offset; //position in the file where the window starts
+        private MappedByteBuffer window;
+
+        private MappedReader (FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(WINDOW_SIZE, channel.size()));
+        }
+
+        /**
+         * Moves the window so that at least the given number of bytes can be read from it.
+         * @param bytes
+         */
+        private void require (int bytes) throws IOException {
+            if (this.window.remaining() >= bytes) {
+                return;
+            }
+            this.offset += this.window.position();
+            long size = Math.min(Math.max(WINDOW_SIZE, bytes), this.channel.size() - this.offset);
+            if (size < bytes) {
+                throw new IOException("Index snapshot is truncated.");
+            }
+            this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, this.offset, size);
+        }
+
+        private byte readByte () throws IOException {
+            this.require(Byte.BYTES);
+            return this.window.get();
+        }
+
+        private int readInt () throws IOException {
+            this.require(Integer.BYTES);
+            return this.window.getInt();
+        }
+
+        private long readLong () throws IOException {
+            this.require(Long.BYTES);
+            return this.window.getLong();
+        }
+
+        /**
+         * @return the string, or null at the end of the terms
+         */
+        private String readString () throws IOException {
+            int length = this.readInt();
+            if (length == END_OF_TERMS) {
+                return null;
+            }
+            this.require(length);
+            byte[] bytes = new byte[length];
+            this.window.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
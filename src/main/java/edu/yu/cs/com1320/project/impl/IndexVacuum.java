@@ -0,0 +1,45 @@
+package edu.yu.cs.com1320.project.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Compacts the index of a DocumentStoreImpl after bulk deletes. Deleting a Document already frees the parts of the index only it used;
+ * a vacuum also merges the ids removed from each word's postings into the rest, which deletes otherwise only do once enough
+ * of them pile up. The store is locked while the vacuum runs, as for any other operation, so vacuumAsync only moves the wait
+ * off the calling thread.
+ */
+public class IndexVacuum {
+
+    private DocumentStoreImpl store;
+
+    /**
+     * Constructor for IndexVacuum
+     * @param store the store to vacuum
+     */
+    public IndexVacuum (DocumentStoreImpl store) {
+        if (store == null) {
+            throw new IllegalArgumentException("DocumentStore must not be null.");
+        }
+        this.store = store;
+    }
+
+    /**
+     * Vacuums the index of the store
+     */
+    public void vacuum () {
+        this.store.vacuum();
+    }
+
+    /**
+     * Vacuums the index of the store on the given executor
+     * @param executor
+     * @return future which completes once the vacuum is done
+     */
+    public CompletableFuture<Void> vacuumAsync (Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor must not be null.");
+        }
+        return CompletableFuture.runAsync(this.store::vacuum, executor);
+    }
+}
@@ -0,0 +1,105 @@
+package edu.yu.cs.com1320.project.impl;
+
+import java.util.Arrays;
+
+/**
+ * Map from non-negative int keys to int values, kept in two open addressing arrays so that neither keys nor values are boxed.
+ * A key which is not in the map has the value 0.
+ */
+class IntIntMap {
+
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+
+    IntIntMap () {
+        this(8);
+    }
+
+    /**
+     * @param expectedSize number of keys the map should hold without growing
+     */
+    IntIntMap (int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 4) * 2 - 1) << 1;
+        this.keys = new int[capacity];
+        this.values = new int[capacity];
+        Arrays.fill(this.keys, EMPTY);
+    }
+
+    /**
+     * @param key
+     * @return the value of the key, or 0 if it is not in the map
+     */
+    int get (int key) {
+        int slot = this.findSlot(key);
+        return this.keys[slot] == EMPTY ? 0 : this.values[slot];
+    }
+
+    /**
+     * Adds delta to the value of the key, putting the key in the map if it is not already there
+     * @param key a non-negative int
+     * @param delta
+     */
+    void add (int key, int delta) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Key must not be negative.");
+        }
+        int slot = this.findSlot(key);
+        if (this.keys[slot] == EMPTY) {
+            this.keys[slot] = key;
+            this.size++;
+        }
+        this.values[slot] += delta;
+        if (this.size * 2 > this.keys.length) {
+            this.rehash();
+        }
+    }
+
+    /**
+     * @return number of keys in the map
+     */
+    int size () {
+        return this.size;
+    }
+
+    /**
+     * @return the keys in the map, in no particular order
+     */
+    int[] getKeys () {
+        int[] keys = new int[this.size];
+        int i = 0;
+        for (int key : this.keys) {
+            if (key != EMPTY) {
+                keys[i++] = key;
+            }
+        }
+        return keys;
+    }
+
+    private int findSlot (int key) {
+        int mask = this.keys.length - 1;
+        int hash = key * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (this.keys[slot] != EMPTY && this.keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash () {
+        int[] keys = this.keys;
+        int[] values = this.values;
+        this.keys = new int[keys.length * 2];
+        this.values = new int[values.length * 2];
+        Arrays.fill(this.keys, EMPTY);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                int slot = this.findSlot(keys[i]);
+                this.keys[slot] = keys[i];
+                this.values[slot] = values[i];
+            }
+        }
+    }
+}
@@ -3,21 +3,53 @@ package edu.yu.cs.com1320.project.impl;
 import edu.yu.cs.com1320.project.MinHeap;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 /**
  * Beginnings of a MinHeap, for Stage 4 of project.
- * Does not include the additional data structure or logic needed to reheapify an element after its last use time changes.
+ * Keeps the index of every element in a side table, so finding an element to reheapify it takes constant time
+ * (elements must have a hashCode consistent with equals).
  * Note: Many methods used are in MinHeap, the abstract class.
  * @param <E>
  */
 public class MinHeapImpl<E extends Comparable<E>> extends MinHeap<E> {
 
+    private Map<E, Integer> indexes;
+
     /**
      * Constructor for MinHeap
      */
     public MinHeapImpl () {
         this.elements = (E[]) new Comparable[8];
+        this.indexes = new HashMap<>();
+    }
+
+    @Override
+    public void insert (E x) {
+        if (x == null) {
+            throw new IllegalArgumentException("Element must not be null.");
+        }
+        this.indexes.put(x, this.count + 1);
+        super.insert(x);
+    }
+
+    @Override
+    public E remove () {
+        E min = super.remove();
+        this.indexes.remove(min);
+        return min;
+    }
+
+    /**
+     * Swaps the elements and their entries in the side table
+     */
+    @Override
+    protected void swap (int i, int j) {
+        super.swap(i, j);
+        this.indexes.put(this.elements[i], i);
+        this.indexes.put(this.elements[j], j);
     }
 
     /**
@@ -47,12 +79,19 @@ public class MinHeapImpl<E extends Comparable<E>> extends MinHeap<E> {
         if (this.isEmpty()) {
             throw new NoSuchElementException("Heap is empty.");
         }
-        for (int i = 1; i < this.elements.length; i++) {
-            if (this.elements[i] != null && this.elements[i].equals(element)) {
-                return i;
-            }
+        Integer index = this.indexes.get(element);
+        if (index == null) {
+            throw new NoSuchElementException("Heap does not contain this element.");
         }
-        throw new NoSuchElementException("Heap does not contain this element.");
+        return index;
+    }
+
+    /**
+     * @param element
+     * @return true if the element is in the heap
+     */
+    boolean contains (E element) {
+        return this.indexes.containsKey(element);
     }
 
     /**
@@ -0,0 +1,323 @@
+package edu.yu.cs.com1320.project.impl;
+
+import java.util.Arrays;
+
+/**
+ * The postings of one word: the ids of the values (e.g. Documents) the word appears in, each with its count, in ascending order of id.
+ * Most postings are packed into blocks of BLOCK_SIZE, each posting as the varint delta from the previous id followed by the varint count,
+ * with the first id and byte offset of every block kept aside so a lookup only decodes one block. Changes go into a small sorted tail,
+ * which is merged into the blocks once it grows past a fraction of them, so a put or remove costs a binary search plus an amortized
+ * constant share of the merge. The highest count in each block is kept as well, so a top k query can skip the blocks which
+ * cannot hold any of the best k.
+ */
+class PostingList {
+
+    static final int BLOCK_SIZE = 128;
+    private static final int MIN_TAIL_SIZE = 16;
+    private static final int MAX_VARINT_SIZE = 5;
+    private static final int[] NO_INTS = new int[0];
+    private static final byte[] NO_BYTES = new byte[0];
+
+    /**
+     * Receives the postings of a PostingList, one at a time
+     */
+    interface Visitor {
+        void visit (int id, int count);
+    }
+
+    private byte[] data;
+    private int[] blockFirstIds;
+    private int[] blockOffsets; //blockOffsets[b] is the index in data where block b starts
+    private int[] blockMaxCounts;
+    private int baseSize; //number of postings in the blocks, including ones the tail removes or replaces
+    private int[] tailIds;
+    private int[] tailCounts; //a count of 0 marks an id removed from the blocks
+    private int tailSize;
+    private int size;
+
+    PostingList () {
+        this.clear();
+    }
+
+    /**
+     * @return number of ids in the list
+     */
+    int size () {
+        return this.size;
+    }
+
+    boolean isEmpty () {
+        return this.size == 0;
+    }
+
+    /**
+     * @param id
+     * @return the count of the id, or 0 if it is not in the list
+     */
+    int get (int id) {
+        int t = Arrays.binarySearch(this.tailIds, 0, this.tailSize, id);
+        return t >= 0 ? this.tailCounts[t] : this.getFromBlocks(id);
+    }
+
+    /**
+     * Adds the id to the list, or replaces its count if it is already there
+     * @param id a non-negative int
+     * @param count a positive int
+     */
+    void put (int id, int count) {
+        if (id < 0 || count <= 0) {
+            throw new IllegalArgumentException("Id must not be negative and count must be positive.");
+        }
+        if (this.get(id) == 0) {
+            this.size++;
+        }
+        this.setTail(id, count);
+        this.compactIfNeeded();
+    }
+
+    /**
+     * @param id
+     * @return true if the id was in the list
+     */
+    boolean remove (int id) {
+        if (this.get(id) == 0) {
+            return false;
+        }
+        if (this.getFromBlocks(id) > 0) {
+            this.setTail(id, 0);
+        }
+        else {
+            int t = Arrays.binarySearch(this.tailIds, 0, this.tailSize, id);
+            System.arraycopy(this.tailIds, t + 1, this.tailIds, t, this.tailSize - t - 1);
+            System.arraycopy(this.tailCounts, t + 1, this.tailCounts, t, this.tailSize - t - 1);
+            this.tailSize--;
+        }
+        this.size--;
+        this.compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * Removes every id
+     */
+    void clear () {
+        this.data = NO_BYTES;
+        this.blockFirstIds = NO_INTS;
+        this.blockOffsets = NO_INTS;
+        this.blockMaxCounts = NO_INTS;
+        this.baseSize = 0;
+        this.tailIds = NO_INTS;
+        this.tailCounts = NO_INTS;
+        this.tailSize = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Visits every id and its count, in ascending order of id
+     * @param visitor
+     */
+    void forEach (Visitor visitor) {
+        int[] ids = new int[BLOCK_SIZE];
+        int[] counts = new int[BLOCK_SIZE];
+        int t = 0;
+        for (int b = 0; b < this.blockFirstIds.length; b++) {
+            int length = this.decodeBlock(b, ids, counts);
+            for (int i = 0; i < length; i++) {
+                for (; t < this.tailSize && this.tailIds[t] < ids[i]; t++) {
+                    this.visitTail(t, visitor);
+                }
+                if (t < this.tailSize && this.tailIds[t] == ids[i]) {
+                    this.visitTail(t++, visitor);
+                }
+                else {
+                    visitor.visit(ids[i], counts[i]);
+                }
+            }
+        }
+        for (; t < this.tailSize; t++) {
+            this.visitTail(t, visitor);
+        }
+    }
+
+    /**
+     * Adds the ids and counts which can be among the best k to top. The tail is added first, then the blocks in descending order of their
+     * highest count, stopping at the first block whose highest count is below what the best k so far already need.
+     * @param top
+     */
+    void addTop (TopRanks top) {
+        for (int t = 0; t < this.tailSize; t++) {
+            if (this.tailCounts[t] > 0) {
+                top.add(this.tailIds[t], this.tailCounts[t]);
+            }
+        }
+        long[] order = new long[this.blockMaxCounts.length];
+        for (int b = 0; b < order.length; b++) {
+            order[b] = ((long)(Integer.MAX_VALUE - this.blockMaxCounts[b]) << 32) | b;
+        }
+        Arrays.sort(order);
+        int[] ids = new int[BLOCK_SIZE];
+        int[] counts = new int[BLOCK_SIZE];
+        for (long entry : order) {
+            int b = (int)entry;
+            if (this.blockMaxCounts[b] < top.getThreshold()) {
+                break;
+            }
+            int length = this.decodeBlock(b, ids, counts);
+            for (int i = 0; i < length; i++) {
+                //the tail's entry, already added, replaces the block's
+                if (Arrays.binarySearch(this.tailIds, 0, this.tailSize, ids[i]) < 0) {
+                    top.add(ids[i], counts[i]);
+                }
+            }
+        }
+    }
+
+    private void visitTail (int t, Visitor visitor) {
+        if (this.tailCounts[t] > 0) {
+            visitor.visit(this.tailIds[t], this.tailCounts[t]);
+        }
+    }
+
+    /**
+     * @return number of bytes the blocks take
+     */
+    int getEncodedSize () {
+        return this.data.length;
+    }
+
+    /**
+     * @param id
+     * @return the count of the id in the blocks, or 0 if it is not there
+     */
+    private int getFromBlocks (int id) {
+        int b = Arrays.binarySearch(this.blockFirstIds, id);
+        if (b == -1) {
+            return 0;
+        }
+        b = b >= 0 ? b : -b - 2;
+        int length = Math.min(BLOCK_SIZE, this.baseSize - b * BLOCK_SIZE);
+        int position = this.blockOffsets[b];
+        int current = this.blockFirstIds[b];
+        for (int i = 0; i < length && current <= id; i++) {
+            long delta = this.readVarInt(position);
+            long count = this.readVarInt((int)delta);
+            current += (int)(delta >>> 32);
+            if (current == id) {
+                return (int)(count >>> 32);
+            }
+            position = (int)count;
+        }
+        return 0;
+    }
+
+    /**
+     * @param b index of the block
+     * @param ids receives the ids of the block
+     * @param counts receives the counts of the block
+     * @return number of postings in the block
+     */
+    private int decodeBlock (int b, int[] ids, int[] counts) {
+        int length = Math.min(BLOCK_SIZE, this.baseSize - b * BLOCK_SIZE);
+        int position = this.blockOffsets[b];
+        int id = this.blockFirstIds[b];
+        for (int i = 0; i < length; i++) {
+            long delta = this.readVarInt(position);
+            long count = this.readVarInt((int)delta);
+            id += (int)(delta >>> 32);
+            ids[i] = id;
+            counts[i] = (int)(count >>> 32);
+            position = (int)count;
+        }
+        return length;
+    }
+
+    /**
+     * @param position index of the varint in data
+     * @return the value of the varint in the high 32 bits, and the index after it in the low 32 bits
+     */
+    private long readVarInt (int position) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte next = this.data[position++];
+            value |= (next & 0x7F) << shift;
+            if (next >= 0) {
+                return ((long)value << 32) | position;
+            }
+        }
+    }
+
+    private void setTail (int id, int count) {
+        int t = Arrays.binarySearch(this.tailIds, 0, this.tailSize, id);
+        if (t >= 0) {
+            this.tailCounts[t] = count;
+            return;
+        }
+        t = -t - 1;
+        if (this.tailSize == this.tailIds.length) {
+            this.tailIds = Arrays.copyOf(this.tailIds, Math.max(4, this.tailSize * 2));
+            this.tailCounts = Arrays.copyOf(this.tailCounts, this.tailIds.length);
+        }
+        System.arraycopy(this.tailIds, t, this.tailIds, t + 1, this.tailSize - t);
+        System.arraycopy(this.tailCounts, t, this.tailCounts, t + 1, this.tailSize - t);
+        this.tailIds[t] = id;
+        this.tailCounts[t] = count;
+        this.tailSize++;
+    }
+
+    private void compactIfNeeded () {
+        if (this.tailSize > Math.max(MIN_TAIL_SIZE, this.baseSize / 8)) {
+            this.compact();
+        }
+    }
+
+    /**
+     * Merges the tail into the blocks
+     */
+    void compact () {
+        if (this.tailSize == 0) {
+            return;
+        }
+        int[] ids = new int[this.size];
+        int[] counts = new int[this.size];
+        int[] length = new int[1];
+        this.forEach((id, count) -> {
+            ids[length[0]] = id;
+            counts[length[0]++] = count;
+        });
+        int blocks = (this.size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        byte[] data = new byte[this.size * 2 * MAX_VARINT_SIZE];
+        this.blockFirstIds = new int[blocks];
+        this.blockOffsets = new int[blocks];
+        this.blockMaxCounts = new int[blocks];
+        int position = 0;
+        for (int i = 0; i < this.size; i++) {
+            if (i % BLOCK_SIZE == 0) {
+                this.blockFirstIds[i / BLOCK_SIZE] = ids[i];
+                this.blockOffsets[i / BLOCK_SIZE] = position;
+            }
+            this.blockMaxCounts[i / BLOCK_SIZE] = Math.max(this.blockMaxCounts[i / BLOCK_SIZE], counts[i]);
+            position = this.writeVarInt(data, position, i % BLOCK_SIZE == 0 ? 0 : ids[i] - ids[i - 1]);
+            position = this.writeVarInt(data, position, counts[i]);
+        }
+        this.data = Arrays.copyOf(data, position);
+        this.baseSize = this.size;
+        this.tailIds = NO_INTS;
+        this.tailCounts = NO_INTS;
+        this.tailSize = 0;
+    }
+
+    /**
+     * @param data
+     * @param position index to write at
+     * @param value a non-negative int
+     * @return index after the last byte written
+     */
+    private int writeVarInt (byte[] data, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            data[position++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[position++] = (byte)value;
+        return position;
+    }
+}
@@ -0,0 +1,44 @@
+package edu.yu.cs.com1320.project.impl;
+
+import edu.yu.cs.com1320.project.Document;
+
+import java.util.List;
+
+/**
+ * Searches of a DocumentStoreImpl which return only the best k matches. The matches are ranked as by DocumentStore.search and
+ * DocumentStore.searchByPrefix, but only the best k are ever sorted, and blocks of postings which cannot hold any of them are skipped
+ * (see PostingList). Only the returned Documents count as used, and only those on disk are read.
+ */
+public class RankedSearch {
+
+    private DocumentStoreImpl store;
+
+    /**
+     * Constructor for RankedSearch
+     * @param store the store to search
+     */
+    public RankedSearch (DocumentStoreImpl store) {
+        if (store == null) {
+            throw new IllegalArgumentException("DocumentStore must not be null.");
+        }
+        this.store = store;
+    }
+
+    /**
+     * @param keyword
+     * @param k maximum number of Documents to return
+     * @return a List of at most k Documents containing the keyword, in descending order of the number of times it appears
+     */
+    public List<Document> search (String keyword, int k) {
+        return this.store.search(keyword, k);
+    }
+
+    /**
+     * @param keywordPrefix
+     * @param k maximum number of Documents to return
+     * @return a List of at most k Documents containing words with the prefix, in descending order of the number of times they appear
+     */
+    public List<Document> searchByPrefix (String keywordPrefix, int k) {
+        return this.store.searchByPrefix(keywordPrefix, k);
+    }
+}
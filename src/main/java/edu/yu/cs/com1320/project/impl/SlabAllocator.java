@@ -0,0 +1,126 @@
+package edu.yu.cs.com1320.project.impl;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Allocates buffers outside the Java heap, within a byte budget. Direct buffers are allocated a slab at a time and cut into
+ * blocks of one power-of-two size class, which are reused once they are freed; a request larger than a slab gets a direct buffer of its own.
+ */
+class SlabAllocator {
+
+    static final int DEFAULT_SLAB_SIZE = 1 << 20;
+    private static final int MIN_BLOCK_SIZE = 64;
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private long budget;
+    private long allocated;
+    private int slabSize;
+    private List<ArrayDeque<ByteBuffer>> freeBlocks; //index is the size class: blocks of MIN_BLOCK_SIZE << index bytes
+
+    /**
+     * @param budget maximum number of bytes of slabs and large buffers to allocate
+     * @param slabSize bytes per slab, a power of two
+     */
+    SlabAllocator (long budget, int slabSize) {
+        if (slabSize < MIN_BLOCK_SIZE || Integer.bitCount(slabSize) != 1) {
+            throw new IllegalArgumentException("Slab size must be a power of two of at least " + MIN_BLOCK_SIZE + ".");
+        }
+        this.budget = budget;
+        this.slabSize = slabSize;
+        this.freeBlocks = new ArrayList<>();
+        for (int size = MIN_BLOCK_SIZE; size <= slabSize; size <<= 1) {
+            this.freeBlocks.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Slabs which were already allocated are kept when the budget is lowered; no new ones are allocated until the allocator is within it
+     * @param budget
+     */
+    synchronized void setBudget (long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return number of bytes of slabs and large buffers allocated
+     */
+    synchronized long getAllocated () {
+        return this.allocated;
+    }
+
+    /**
+     * @param length number of bytes needed
+     * @return a buffer with at least that many bytes remaining, or null if it would go over the budget
+     */
+    synchronized ByteBuffer allocate (int length) {
+        if (length > this.slabSize) {
+            if (this.allocated + length > this.budget) {
+                return null;
+            }
+            this.allocated += length;
+            return ByteBuffer.allocateDirect(length);
+        }
+        ArrayDeque<ByteBuffer> blocks = this.freeBlocks.get(this.sizeClass(length));
+        if (blocks.isEmpty() && !this.addSlab(this.sizeClass(length))) {
+            return null;
+        }
+        return blocks.pop();
+    }
+
+    /**
+     * Cuts a new slab into blocks of the given size class
+     * @param sizeClass
+     * @return false if the slab would go over the budget
+     */
+    private boolean addSlab (int sizeClass) {
+        if (this.allocated + this.slabSize > this.budget) {
+            return false;
+        }
+        this.allocated += this.slabSize;
+        ByteBuffer slab = ByteBuffer.allocateDirect(this.slabSize);
+        int blockSize = MIN_BLOCK_SIZE << sizeClass;
+        for (int offset = 0; offset < this.slabSize; offset += blockSize) {
+            ByteBuffer block = slab.duplicate();
+            block.position(offset).limit(offset + blockSize);
+            this.freeBlocks.get(sizeClass).push(block.slice());
+        }
+        return true;
+    }
+
+    /**
+     * @param length
+     * @return index of the smallest size class which fits length bytes
+     */
+    private int sizeClass (int length) {
+        int sizeClass = 0;
+        while ((MIN_BLOCK_SIZE << sizeClass) < length) {
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+
+    /**
+     * Returns a buffer from allocate, so that its block can be reused
+     * @param buffer
+     */
+    synchronized void free (ByteBuffer buffer) {
+        if (buffer.capacity() > this.slabSize) {
+            this.allocated -= buffer.capacity();
+            return;
+        }
+        this.freeBlocks.get(this.sizeClass(buffer.capacity())).push(buffer.clear());
+    }
+
+    /**
+     * Frees the buffer once the owner is no longer reachable
+     * @param owner object holding the buffer; it must not be referenced by anything the Cleaner holds on to
+     * @param buffer
+     */
+    void freeWhenUnreachable (Object owner, ByteBuffer buffer) {
+        CLEANER.register(owner, () -> this.free(buffer));
+    }
+}
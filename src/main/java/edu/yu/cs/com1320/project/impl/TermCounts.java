@@ -0,0 +1,145 @@
+package edu.yu.cs.com1320.project.impl;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The number of times each word appears in a Document, as the words' ids (see TermDictionary) in ascending order and their counts
+ * in a parallel array. Looking up a count is a binary search which allocates nothing. Immutable.
+ */
+class TermCounts {
+
+    static final TermCounts EMPTY = new TermCounts(new TermDictionary(), new IntIntMap());
+
+    private TermDictionary dictionary;
+    private int[] ids;
+    private int[] counts;
+
+    /**
+     * @param dictionary dictionary the ids are from
+     * @param counts count of each id
+     */
+    TermCounts (TermDictionary dictionary, IntIntMap counts) {
+        this.dictionary = dictionary;
+        this.setCounts(counts);
+    }
+
+    /**
+     * @param dictionary dictionary to give the words ids from
+     * @param wordToCount count of each word
+     */
+    TermCounts (TermDictionary dictionary, Map<String, Integer> wordToCount) {
+        this.dictionary = dictionary;
+        IntIntMap counts = new IntIntMap(wordToCount.size());
+        for (Map.Entry<String, Integer> entry : wordToCount.entrySet()) {
+            counts.add(dictionary.getId(entry.getKey()), entry.getValue());
+        }
+        this.setCounts(counts);
+    }
+
+    private void setCounts (IntIntMap counts) {
+        this.ids = counts.getKeys();
+        Arrays.sort(this.ids);
+        this.counts = new int[this.ids.length];
+        for (int i = 0; i < this.ids.length; i++) {
+            this.counts[i] = counts.get(this.ids[i]);
+        }
+    }
+
+    /**
+     * @param dictionary
+     * @return these counts with the words' ids from the given dictionary, which gives ids to any words it does not have yet
+     */
+    TermCounts withDictionary (TermDictionary dictionary) {
+        if (dictionary == this.dictionary) {
+            return this;
+        }
+        IntIntMap counts = new IntIntMap(this.ids.length);
+        for (int i = 0; i < this.ids.length; i++) {
+            counts.add(dictionary.getId(this.dictionary.getTerm(this.ids[i])), this.counts[i]);
+        }
+        return new TermCounts(dictionary, counts);
+    }
+
+    /**
+     * @param id
+     * @return the count of the word with the given id, or 0 if it does not appear
+     */
+    int get (int id) {
+        int i = Arrays.binarySearch(this.ids, id);
+        return i < 0 ? 0 : this.counts[i];
+    }
+
+    /**
+     * @param word
+     * @return the count of the word, or 0 if it does not appear
+     */
+    int get (String word) {
+        int id = this.dictionary.find(word);
+        return id < 0 ? 0 : this.get(id);
+    }
+
+    /**
+     * @return number of different words
+     */
+    int size () {
+        return this.ids.length;
+    }
+
+    /**
+     * @return a new map of each word to its count, in order of the words' ids
+     */
+    Map<String, Integer> toMap () {
+        Map<String, Integer> wordToCount = new LinkedHashMap<>();
+        for (int i = 0; i < this.ids.length; i++) {
+            wordToCount.put(this.dictionary.getTerm(this.ids[i]), this.counts[i]);
+        }
+        return wordToCount;
+    }
+
+    /**
+     * @return unmodifiable view of the words
+     */
+    Set<String> getWords () {
+        return new AbstractSet<String>() {
+            @Override
+            public boolean contains (Object o) {
+                if (!(o instanceof String)) {
+                    return false;
+                }
+                int id = dictionary.find((String)o);
+                return id >= 0 && Arrays.binarySearch(ids, id) >= 0;
+            }
+
+            @Override
+            public Iterator<String> iterator () {
+                return new Iterator<String>() {
+                    private int i;
+
+                    @Override
+                    public boolean hasNext () {
+                        return this.i < ids.length;
+                    }
+
+                    @Override
+                    public String next () {
+                        if (!this.hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return dictionary.getTerm(ids[this.i++]);
+                    }
+                };
+            }
+
+            @Override
+            public int size () {
+                return ids.length;
+            }
+        };
+    }
+}
@@ -0,0 +1,114 @@
+package edu.yu.cs.com1320.project.impl;
+
+import java.util.Arrays;
+
+/**
+ * Assigns every word an int id, so a word is kept as a String only once however many Documents contain it (see TermCounts).
+ * Ids are dense, starting at 0, and are never reused. Words can be looked up by any CharSequence, e.g. a StringBuilder,
+ * without first being copied into a String. A dictionary never shrinks: each DocumentStoreImpl has its own, which vacuuming the
+ * store's Trie replaces with one of only the words that still have postings (see TrieImpl.vacuum).
+ */
+class TermDictionary {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private String[] terms; //index is the id
+    private int[] hashes; //hash of each term, by id
+    private int[] table; //open addressing table of id + 1, or 0 for an empty slot
+    private int size;
+
+    TermDictionary () {
+        this.terms = new String[INITIAL_CAPACITY];
+        this.hashes = new int[INITIAL_CAPACITY];
+        this.table = new int[INITIAL_CAPACITY * 2];
+    }
+
+    /**
+     * @param term
+     * @return the id of the term, which is assigned if the term is new
+     */
+    synchronized int getId (CharSequence term) {
+        int hash = this.hash(term);
+        int slot = this.findSlot(term, hash);
+        if (this.table[slot] != 0) {
+            return this.table[slot] - 1;
+        }
+        if (this.size == this.terms.length) {
+            this.terms = Arrays.copyOf(this.terms, this.size * 2);
+            this.hashes = Arrays.copyOf(this.hashes, this.size * 2);
+        }
+        this.terms[this.size] = term.toString();
+        this.hashes[this.size] = hash;
+        this.table[slot] = ++this.size;
+        if (this.size * 2 > this.table.length) {
+            this.rehash();
+        }
+        return this.size - 1;
+    }
+
+    /**
+     * @param term
+     * @return the id of the term, or -1 if it has none
+     */
+    synchronized int find (CharSequence term) {
+        return this.table[this.findSlot(term, this.hash(term))] - 1;
+    }
+
+    /**
+     * @param id
+     * @return the term with the given id
+     */
+    synchronized String getTerm (int id) {
+        if (id < 0 || id >= this.size) {
+            throw new IllegalArgumentException("No term has id " + id + ".");
+        }
+        return this.terms[id];
+    }
+
+    /**
+     * @return number of terms which have an id
+     */
+    synchronized int size () {
+        return this.size;
+    }
+
+    /**
+     * @param term
+     * @param hash
+     * @return the slot of the table holding the term, or the empty slot where it would go
+     */
+    private int findSlot (CharSequence term, int hash) {
+        int mask = this.table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = this.table[slot];
+            if (entry == 0 || (this.hashes[entry - 1] == hash && this.terms[entry - 1].contentEquals(term))) {
+                return slot;
+            }
+        }
+    }
+
+    private void rehash () {
+        int[] table = new int[this.table.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0; id < this.size; id++) {
+            int slot = this.hashes[id] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+        this.table = table;
+    }
+
+    /**
+     * @param term
+     * @return String.hashCode of the term, with its high bits spread into the low ones the table slot is taken from
+     */
+    private int hash (CharSequence term) {
+        int hash = 0;
+        for (int i = 0; i < term.length(); i++) {
+            hash = 31 * hash + term.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
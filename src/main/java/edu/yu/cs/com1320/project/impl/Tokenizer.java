@@ -0,0 +1,117 @@
+package edu.yu.cs.com1320.project.impl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+
+/**
+ * Counts the words of a text which is fed in one chunk at a time, so the text never has to be copied or split as a whole.
+ * The characters are normalized by an Analyzer and split on spaces. A word may span chunks. Words are counted by their id in
+ * a TermDictionary, so a word is only copied into a String the first time the dictionary sees it.
+ */
+class Tokenizer {
+
+    static final int CHUNK_SIZE = 8192;
+
+    private Analyzer analyzer;
+    private TermDictionary dictionary;
+    private IntIntMap counts;
+    private StringBuilder word;
+
+    /**
+     * Tokenizer with a TermDictionary of its own, e.g. for a Document which is not in a DocumentStoreImpl
+     */
+    Tokenizer () {
+        this(Analyzer.DEFAULT, new TermDictionary());
+    }
+
+    /**
+     * @param analyzer normalizes the characters of the text
+     * @param dictionary gives the words ids
+     */
+    Tokenizer (Analyzer analyzer, TermDictionary dictionary) {
+        this.analyzer = analyzer;
+        this.dictionary = dictionary;
+        this.counts = new IntIntMap();
+        this.word = new StringBuilder();
+    }
+
+    /**
+     * @param chars
+     * @param offset index of the first character of the chunk
+     * @param length number of characters in the chunk
+     * @return this Tokenizer
+     */
+    Tokenizer add (char[] chars, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            this.add(chars[i]);
+        }
+        return this;
+    }
+
+    /**
+     * @param chars a chunk of the text
+     * @return this Tokenizer
+     */
+    Tokenizer add (CharSequence chars) {
+        for (int i = 0; i < chars.length(); i++) {
+            this.add(chars.charAt(i));
+        }
+        return this;
+    }
+
+    private void add (char c) {
+        c = this.analyzer.normalize(c);
+        if (c == ' ') {
+            this.endWord();
+        }
+        else if (c != Analyzer.DROPPED) {
+            this.word.append(c);
+        }
+    }
+
+    private void endWord () {
+        if (this.word.length() > 0) {
+            this.counts.add(this.dictionary.getId(this.word), 1);
+            this.word.setLength(0);
+        }
+    }
+
+    /**
+     * Reads the rest of the text from the reader a chunk at a time
+     * @param reader
+     * @param text if not null, every chunk is appended to it as well
+     * @return this Tokenizer
+     * @throws IOException
+     */
+    Tokenizer read (Reader reader, StringBuilder text) throws IOException {
+        char[] chunk = new char[CHUNK_SIZE];
+        for (int length = reader.read(chunk); length != -1; length = reader.read(chunk)) {
+            this.add(chunk, 0, length);
+            if (text != null) {
+                text.append(chunk, 0, length);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Ends the text
+     * @return number of times each word appears; a text without any words counts the empty word once, as splitting an empty string does
+     */
+    TermCounts getTermCounts () {
+        this.endWord();
+        if (this.counts.size() == 0) {
+            this.counts.add(this.dictionary.getId(""), 1);
+        }
+        return new TermCounts(this.dictionary, this.counts);
+    }
+
+    /**
+     * Ends the text
+     * @return a map of the number of times each word appears (see getTermCounts)
+     */
+    Map<String, Integer> getCounts () {
+        return this.getTermCounts().toMap();
+    }
+}
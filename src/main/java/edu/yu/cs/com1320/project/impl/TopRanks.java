@@ -0,0 +1,82 @@
+package edu.yu.cs.com1320.project.impl;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the best k of the (id, count) pairs added to it: those of the highest counts, ties going to the lowest ids. Each pair is packed
+ * into one long which sorts before those of better pairs, so candidates are kept in a primitive buffer and cut back to the best k
+ * with a sort whenever the buffer fills up, instead of sorting every pair.
+ */
+class TopRanks {
+
+    private int k;
+    private long[] ranks;
+    private int size;
+    private boolean sorted;
+
+    /**
+     * @param k number of pairs to keep
+     * @param expected number of pairs expected to be added, or less if it is not known
+     */
+    TopRanks (int k, int expected) {
+        if (k < 0) {
+            throw new IllegalArgumentException("Number of results must not be negative.");
+        }
+        this.k = k;
+        this.ranks = new long[Math.max(1, (int)Math.min(2L * k, Math.max(expected, 16)))];
+        this.sorted = true;
+    }
+
+    /**
+     * @param id a non-negative int
+     * @param count a positive int
+     */
+    void add (int id, int count) {
+        if (this.k == 0) {
+            return;
+        }
+        if (this.size == this.ranks.length) {
+            this.cut();
+            if (this.size == this.ranks.length) {
+                this.ranks = Arrays.copyOf(this.ranks, this.ranks.length * 2);
+            }
+        }
+        this.ranks[this.size++] = ((long)(Integer.MAX_VALUE - count) << 32) | id;
+        this.sorted = false;
+    }
+
+    /**
+     * @return the lowest count a pair needs to be among the best k so far (a pair with that count may still lose on its id),
+     *         or 0 while fewer than k pairs have been added
+     */
+    int getThreshold () {
+        if (this.size < this.k || this.k == 0) {
+            return this.k == 0 ? Integer.MAX_VALUE : 0;
+        }
+        this.cut();
+        return Integer.MAX_VALUE - (int)(this.ranks[this.k - 1] >>> 32);
+    }
+
+    /**
+     * @return ids of the best k pairs, best first
+     */
+    int[] getIds () {
+        this.cut();
+        int[] ids = new int[this.size];
+        for (int i = 0; i < this.size; i++) {
+            ids[i] = (int)this.ranks[i];
+        }
+        return ids;
+    }
+
+    /**
+     * Sorts the candidates and drops all but the best k
+     */
+    private void cut () {
+        if (!this.sorted) {
+            Arrays.sort(this.ranks, 0, this.size);
+            this.sorted = true;
+        }
+        this.size = Math.min(this.size, this.k);
+    }
+}
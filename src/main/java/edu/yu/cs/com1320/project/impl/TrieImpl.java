@@ -2,29 +2,216 @@ package edu.yu.cs.com1320.project.impl;
 
 import edu.yu.cs.com1320.project.Trie;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.LinkedHashMap;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
+ * Each node keeps its values as a PostingList of their ids, which an IdAllocator translates back to the values at the API.
+ * A node's links grow and shrink with its fan-out, as in an adaptive radix tree: a few links are kept in small sorted arrays of
+ * their characters, and only a node with many links gets an array indexed by character. The trie is path compressed: a run of nodes
+ * which would each have one link and no values is kept as the path of the node at its end, so a long word takes a node or two
+ * rather than one per character, and a lookup makes one hop per branch rather than per character. Deletion unlinks nodes left without
+ * values or links and merges a node left with one link into it, so the trie only ever holds the keys which have values.
  * @param <Value>
  */
 public class TrieImpl<Value> implements Trie<Value> {
 
     private static final int CHARACTER_SIZE = 36;
+    private static final int SMALL_NODE_SIZE = 4;
+    private static final int MEDIUM_NODE_SIZE = 16;
+    private static final byte[] NO_KEYS = new byte[0];
     private Node<Value> root;
+    private IdAllocator<Value> ids;
+    private TermDictionary dictionary; //ids of the words of the Documents whose values are in the trie (see vacuum)
 
     private static final class Node<Value> {
-        
-        private List<Value> values;
-        private Node<Value>[] links;
+
+        private PostingList postings; //ids of the values, with the count of each; null until the node gets a value
+        private byte[] path; //indexes of the characters between the link to this node and the node itself
+        private byte[] keys; //indexes of the links, in ascending order; null once the links are indexed directly
+        private Node<Value>[] links; //links[i] is the link at keys[i], or at index i once keys is null
+        private int linkCount;
 
         private Node () {
-            this.values = new ArrayList<>();
-            this.links = new Node[CHARACTER_SIZE];
+            this.path = NO_KEYS;
+            this.keys = NO_KEYS;
+            this.links = new Node[0];
+        }
+
+        /**
+         * @param index index of a character (see indexFunction)
+         * @return the link at the index, or null if there is none
+         */
+        private Node<Value> getLink (int index) {
+            if (this.keys == null) {
+                return this.links[index];
+            }
+            for (int i = 0; i < this.linkCount && this.keys[i] <= index; i++) {
+                if (this.keys[i] == index) {
+                    return this.links[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Sets or, if the link is null, removes the link at the index, growing or shrinking the links to fit
+         * @param index index of a character (see indexFunction)
+         * @param link
+         */
+        private void setLink (int index, Node<Value> link) {
+            if (this.keys == null) {
+                this.setIndexedLink(index, link);
+                return;
+            }
+            int i = 0;
+            while (i < this.linkCount && this.keys[i] < index) {
+                i++;
+            }
+            if (i < this.linkCount && this.keys[i] == index) {
+                if (link != null) {
+                    this.links[i] = link;
+                }
+                else {
+                    this.removeLink(i);
+                }
+            }
+            else if (link != null) {
+                this.insertLink(i, index, link);
+            }
+        }
+
+        /**
+         * Sets or removes the link at the index of links which are indexed directly, shrinking them once few enough are left
+         * @param index
+         * @param link
+         */
+        private void setIndexedLink (int index, Node<Value> link) {
+            if (this.links[index] == null && link != null) {
+                this.linkCount++;
+            }
+            else if (this.links[index] != null && link == null) {
+                this.linkCount--;
+            }
+            this.links[index] = link;
+            this.shrink();
+        }
+
+        /**
+         * Inserts a link into the sorted links, growing them first if they are full
+         * @param i position of the link among the links
+         * @param index index of its character
+         * @param link
+         */
+        private void insertLink (int i, int index, Node<Value> link) {
+            if (this.linkCount == this.links.length) {
+                this.grow();
+                if (this.keys == null) {
+                    this.setIndexedLink(index, link);
+                    return;
+                }
+            }
+            System.arraycopy(this.keys, i, this.keys, i + 1, this.linkCount - i);
+            System.arraycopy(this.links, i, this.links, i + 1, this.linkCount - i);
+            this.keys[i] = (byte)index;
+            this.links[i] = link;
+            this.linkCount++;
+        }
+
+        /**
+         * Removes a link from the sorted links, shrinking them once few enough are left
+         * @param i position of the link among the links
+         */
+        private void removeLink (int i) {
+            System.arraycopy(this.keys, i + 1, this.keys, i, this.linkCount - i - 1);
+            System.arraycopy(this.links, i + 1, this.links, i, this.linkCount - i - 1);
+            this.links[--this.linkCount] = null;
+            this.shrink();
+        }
+
+        /**
+         * Moves full links into the next size up: small, then medium, then indexed directly
+         */
+        private void grow () {
+            this.resize(this.linkCount == 0 ? SMALL_NODE_SIZE : this.linkCount < MEDIUM_NODE_SIZE ? MEDIUM_NODE_SIZE : CHARACTER_SIZE);
+        }
+
+        /**
+         * Moves the links into a smaller size once they use few enough of their slots, keeping some room so that a link added
+         * and removed again at the boundary does not resize every time
+         */
+        private void shrink () {
+            if (this.keys == null) {
+                if (this.linkCount <= MEDIUM_NODE_SIZE - SMALL_NODE_SIZE) {
+                    this.resize(MEDIUM_NODE_SIZE);
+                }
+            }
+            else if (this.linkCount == 0 || (this.links.length > SMALL_NODE_SIZE && this.linkCount <= SMALL_NODE_SIZE / 2)) {
+                this.resize(this.linkCount == 0 ? 0 : SMALL_NODE_SIZE);
+            }
+        }
+
+        /**
+         * Moves the links into arrays of the given size, which are indexed directly if the size is CHARACTER_SIZE
+         * @param size
+         */
+        private void resize (int size) {
+            byte[] keys = size == CHARACTER_SIZE ? null : size == 0 ? NO_KEYS : new byte[size];
+            Node<Value>[] links = new Node[size];
+            int count = 0;
+            for (int s = 0; s < this.getSlotCount(); s++) {
+                if (this.links[s] != null) {
+                    if (keys == null) {
+                        links[this.getSlotIndex(s)] = this.links[s];
+                    }
+                    else {
+                        keys[count] = (byte)this.getSlotIndex(s);
+                        links[count] = this.links[s];
+                    }
+                    count++;
+                }
+            }
+            this.keys = keys;
+            this.links = links;
+        }
+
+        /**
+         * @return number of slots to look through for links, in ascending order of index; a slot may be empty
+         */
+        private int getSlotCount () {
+            return this.keys == null ? CHARACTER_SIZE : this.linkCount;
+        }
+
+        /**
+         * @param s
+         * @return the link in the slot, or null if it is empty
+         */
+        private Node<Value> getSlot (int s) {
+            return this.links[s];
+        }
+
+        /**
+         * @param s
+         * @return index of the character of the slot's link
+         */
+        private int getSlotIndex (int s) {
+            return this.keys == null ? s : this.keys[s];
+        }
+
+        private boolean hasValues () {
+            return this.postings != null && !this.postings.isEmpty();
         }
     }
 
@@ -32,7 +219,25 @@ public class TrieImpl<Value> implements Trie<Value> {
      * constructor for Trie
      */
     public TrieImpl () {
+        this(new IdAllocator<>(), new TermDictionary());
+    }
+
+    /**
+     * constructor for Trie which shares its value ids with other structures (e.g. a DocumentStoreImpl's doc ids)
+     * @param ids
+     * @param dictionary the TermDictionary of the words its keys come from
+     */
+    TrieImpl (IdAllocator<Value> ids, TermDictionary dictionary) {
         this.root = new Node<>();
+        this.ids = ids;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * @return the TermDictionary of the words its keys come from, which is replaced by vacuum
+     */
+    TermDictionary getDictionary () {
+        return this.dictionary;
     }
 
     /**
@@ -42,56 +247,127 @@ public class TrieImpl<Value> implements Trie<Value> {
      */
     @Override
     public void put (String key, Value val) {
+        this.put(key, val, 1);
+    }
+
+    /**
+     * Add the given value at the given key, along with the number of times the key appears in the value.
+     * If the value is already at the key, its count is replaced.
+     * @param key
+     * @param val
+     * @param count
+     */
+    void put (String key, Value val, int count) {
         if (key == null) {
             throw new IllegalArgumentException ("Key must not be null.");
         }
         if (val == null) {
             return;
         }
-        else {
-            this.root = this.put(this.root, key, val, 0);
+        Node<Value> n = this.root;
+        int d = 0;
+        while (d < key.length()) {
+            int index = indexFunction(key.charAt(d++));
+            Node<Value> link = n.getLink(index);
+            if (link == null) {
+                n = this.addLeaf(n, index, key, d);
+                break;
+            }
+            int matched = this.matchPath(link, key, d);
+            d += matched;
+            n = matched == link.path.length ? link : this.split(n, index, link, matched);
+        }
+        if (n.postings == null) {
+            n.postings = new PostingList();
         }
+        n.postings.put(this.ids.getId(val), count);
     }
 
     /**
-     * Add the given value at the given key (private)
-     * @param n current node
-     * @param key 
-     * @param val 
-     * @param d current depth
-     * @return final node in the key
+     * Links a new node for the rest of the key, which it holds as its path
+     * @param n the node to link it from
+     * @param index index of the link
+     * @param key
+     * @param d index in the key of the first character after the link
+     * @return the new node
      */
-    private Node<Value> put (Node<Value> n, String key, Value val, int d) {
-        if (n == null) {
-            n = new Node<>();
-        }
-        if (d == key.length()) {
-            if (!n.values.contains(val)) {
-                n.values.add(val);
-            }
-            return n;
+    private Node<Value> addLeaf (Node<Value> n, int index, String key, int d) {
+        Node<Value> leaf = new Node<>();
+        leaf.path = new byte[key.length() - d];
+        for (int i = 0; i < leaf.path.length; i++) {
+            leaf.path[i] = (byte)indexFunction(key.charAt(d + i));
+        }
+        n.setLink(index, leaf);
+        return leaf;
+    }
+
+    /**
+     * @param link
+     * @param key
+     * @param d index in the key of the first character after the link
+     * @return number of characters of the link's path which the key matches from there
+     */
+    private int matchPath (Node<Value> link, String key, int d) {
+        int matched = 0;
+        while (matched < link.path.length && d + matched < key.length() && link.path[matched] == indexFunction(key.charAt(d + matched))) {
+            matched++;
         }
-        int index = indexFunction(key.charAt(d));
-        n.links[index] = this.put(n.links[index], key, val, d+1);
-        return n;
+        return matched;
+    }
+
+    /**
+     * Splits the link's path in two, with a new node in between
+     * @param n the node the link is from
+     * @param index index of the link
+     * @param link
+     * @param length number of characters of the path to move to the new node
+     * @return the new node
+     */
+    private Node<Value> split (Node<Value> n, int index, Node<Value> link, int length) {
+        Node<Value> head = new Node<>();
+        head.path = Arrays.copyOf(link.path, length);
+        head.setLink(link.path[length], link);
+        link.path = Arrays.copyOfRange(link.path, length + 1, link.path.length);
+        n.setLink(index, head);
+        return head;
     }
 
     /**
      * Return node at which key is stored
-     * @param n current node
      * @param key key which to get
-     * @param d current depth
-     * @return node at which key is stored
+     * @param prefix if true, a key which ends inside the path of a node leads to that node, whose keys all have it as a prefix
+     * @return node at which key is stored, or null if there is none
      */
-    private Node<Value> get (Node<Value> n, String key, int d) {
-        if (n == null) {
-            return null;
+    private Node<Value> get (String key, boolean prefix) {
+        Node<Value> n = this.root;
+        int d = 0;
+        while (n != null && d < key.length()) {
+            n = n.getLink(indexFunction(key.charAt(d)));
+            d = n == null ? -1 : this.followPath(n, key, d + 1, prefix);
+            if (d == -1) {
+                return null;
+            }
         }
-        if (d == key.length()) {
-            return n;
+        return n;
+    }
+
+    /**
+     * @param link
+     * @param key
+     * @param d depth of the key at the start of the link's path
+     * @param prefix if true, the key may end inside the path
+     * @return depth of the key at the end of the path (or at the end of the key, for a prefix), or -1 if the key leaves the path
+     */
+    private int followPath (Node<Value> link, String key, int d, boolean prefix) {
+        for (int i = 0; i < link.path.length; i++, d++) {
+            if (d == key.length()) {
+                return prefix ? d : -1;
+            }
+            if (link.path[i] != indexFunction(key.charAt(d))) {
+                return -1;
+            }
         }
-        int index = indexFunction(key.charAt(d));
-        return this.get(n.links[index], key, d+1);
+        return d;
     }
 
     /**
@@ -106,12 +382,89 @@ public class TrieImpl<Value> implements Trie<Value> {
         if (key == null || comparator == null) {
             throw new IllegalArgumentException("Argument must not be null.");
         }
-        Node<Value> n = this.get(this.root, key, 0);
-        if (n == null || key.isEmpty()) {
+        Node<Value> n = this.get(key, false);
+        if (n == null || key.isEmpty() || !n.hasValues()) {
             return Collections.emptyList();
         }
-        Collections.sort(n.values, comparator);
-        return n.values;
+        List<Value> values = this.getValues(n);
+        Collections.sort(values, comparator);
+        return values;
+    }
+
+    /**
+     * @param n
+     * @return a new list of the node's values, in order of their ids
+     */
+    private List<Value> getValues (Node<Value> n) {
+        List<Value> values = new ArrayList<>(n.postings.size());
+        n.postings.forEach((id, count) -> values.add(this.ids.get(id)));
+        return values;
+    }
+
+    /**
+     * Get the best k exact matches for the given key, ranked by the number of times the key appears in them (most first), ties in order
+     * of id. The counts come straight from the postings and are ranked with a sort of primitive longs, without a comparator. Blocks of
+     * postings which cannot hold any of the best k are skipped without being decoded.
+     * @param key
+     * @param k maximum number of matches
+     * @return a List of at most k matching Values, in descending order of count
+     */
+    List<Value> getTopRanked (String key, int k) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key must not be null.");
+        }
+        Node<Value> n = this.get(key, false);
+        if (n == null || key.isEmpty() || !n.hasValues()) {
+            return new ArrayList<>();
+        }
+        TopRanks top = new TopRanks(k, n.postings.size());
+        n.postings.addTop(top);
+        return this.getValues(top);
+    }
+
+    /**
+     * Get the best k matches which contain a String with the given prefix, ranked by the total number of times such Strings appear in
+     * them (most first), ties in order of id. Only the best k are sorted.
+     * @param prefix
+     * @param k maximum number of matches
+     * @return a List of at most k matching Values, in descending order of count
+     */
+    List<Value> getTopWithPrefixRanked (String prefix, int k) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("Prefix must not be null.");
+        }
+        Node<Value> n = this.get(prefix, true);
+        if (n == null || prefix.isEmpty()) {
+            return new ArrayList<>();
+        }
+        IntIntMap counts = new IntIntMap();
+        this.addPrefixCounts(n, counts);
+        TopRanks top = new TopRanks(k, counts.size());
+        for (int id : counts.getKeys()) {
+            top.add(id, counts.get(id));
+        }
+        return this.getValues(top);
+    }
+
+    private void addPrefixCounts (Node<Value> n, IntIntMap counts) {
+        this.forEachNode(n, node -> {
+            if (node.postings != null) {
+                node.postings.forEach(counts::add);
+            }
+        });
+    }
+
+    /**
+     * @param top
+     * @return the values of the ids in top, best first
+     */
+    private List<Value> getValues (TopRanks top) {
+        int[] ids = top.getIds();
+        List<Value> values = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            values.add(this.ids.get(id));
+        }
+        return values;
     }
 
     /**
@@ -127,69 +480,162 @@ public class TrieImpl<Value> implements Trie<Value> {
         if (prefix == null || comparator == null) {
             throw new IllegalArgumentException("Argument must not be null.");
         }
-        Node<Value> n = this.get(this.root, prefix, 0);
-        List<Value> prefixValues = new ArrayList<>();
-        if (n != null && !prefix.isEmpty()) {
-            this.getAllWithPrefixSorted(prefix, n, prefixValues);
-        }
+        Node<Value> n = this.get(prefix, true);
+        List<Value> prefixValues = n == null || prefix.isEmpty() ? new ArrayList<>() : this.getAllWithPrefix(n);
         Collections.sort(prefixValues, comparator);
         return prefixValues;
     }
 
     /**
-     * Get all matches which contain a String with the given prefix (private).
-     * @param prefix 
-     * @param n current node
-     * @param prefixValues current list of prefix values
+     * Get all values at the node or below it - UNSORTED. Each value is found once, however many keys it is at, by marking its id.
+     * @param n
+     * @return list of the values, in order of their ids
+     */
+    private List<Value> getAllWithPrefix (Node<Value> n) {
+        BitSet found = new BitSet();
+        this.forEachNode(n, node -> {
+            if (node.postings != null) {
+                node.postings.forEach((id, count) -> found.set(id));
+            }
+        });
+        List<Value> prefixValues = new ArrayList<>(found.cardinality());
+        for (int id = found.nextSetBit(0); id >= 0; id = found.nextSetBit(id + 1)) {
+            prefixValues.add(this.ids.get(id));
+        }
+        return prefixValues;
+    }
+
+    /**
+     * Call the action for the given node and every node below it, with an explicit stack rather than recursion, so the depth of
+     * the trie is not limited by the depth of the call stack. Nodes are not visited in order.
+     * @param n
+     * @param action
      */
-    private void getAllWithPrefixSorted (String prefix, Node<Value> n, List<Value> prefixValues) {
-        if (n.values != null && !n.values.isEmpty()) {
-            for (Value v : n.values) {
-                if (!prefixValues.contains(v)) {
-                    prefixValues.add(v);
+    private void forEachNode (Node<Value> n, Consumer<Node<Value>> action) {
+        Deque<Node<Value>> stack = new ArrayDeque<>();
+        stack.push(n);
+        while (!stack.isEmpty()) {
+            Node<Value> next = stack.pop();
+            action.accept(next);
+            for (int s = 0; s < next.getSlotCount(); s++) {
+                if (next.getSlot(s) != null) {
+                    stack.push(next.getSlot(s));
                 }
             }
         }
-        for (Node<Value> link : n.links) {
-            if (link != null) {
-                this.getAllWithPrefixSorted(prefix, link, prefixValues);
+    }
+
+    /**
+     * Follows the key down from the root, without recursion
+     * @param key
+     * @param prefix if true, the key may end inside the path of its node (see get)
+     * @param nodes receives the nodes on the way, from the root to the node of the key
+     * @param indexes receives the index of the link to each node after the root: indexes[i] leads to nodes.get(i + 1)
+     * @return true if the key has a node
+     */
+    private boolean getPath (String key, boolean prefix, List<Node<Value>> nodes, int[] indexes) {
+        Node<Value> n = this.root;
+        nodes.add(n);
+        int d = 0;
+        while (d < key.length()) {
+            int index = indexFunction(key.charAt(d));
+            n = n.getLink(index);
+            d = n == null ? -1 : this.followPath(n, key, d + 1, prefix);
+            if (d == -1) {
+                return false;
             }
+            indexes[nodes.size() - 1] = index;
+            nodes.add(n);
         }
+        return true;
     }
 
     /**
-     * Get all matches which contain a String with the given prefix - UNSORTED.
-     * @param prefix
-     * @return list of prefix values
+     * Frees the nodes at the end of the path which no longer have values, from the bottom up: a node without links is unlinked,
+     * and a node with one link is merged into it. The root is kept even when it empties.
+     * @param nodes as filled in by getPath
+     * @param indexes as filled in by getPath
      */
-    private List<Value> getAllWithPrefix (String prefix) {
-        Node<Value> n = this.get(this.root, prefix, 0);
-        List<Value> prefixValues = new ArrayList<>();
-        if (n != null) {
-            this.getAllWithPrefix(prefix, n, prefixValues);
+    private void prune (List<Node<Value>> nodes, int[] indexes) {
+        for (int i = nodes.size() - 1; i > 0; i--) {
+            Node<Value> n = nodes.get(i);
+            if (n.hasValues()) {
+                return;
+            }
+            n.postings = null;
+            if (n.linkCount > 1) {
+                return;
+            }
+            nodes.get(i - 1).setLink(indexes[i - 1], n.linkCount == 0 ? null : this.merge(n));
+            if (n.linkCount == 1) {
+                return;
+            }
         }
-        return prefixValues;
     }
 
     /**
-     * Get all matches which contain a String with the given prefix - UNSORTED (private).
-     * @param prefix
-     * @param n current node
-     * @param prefixValues current list of prefix values
+     * Merges a node which has no values and one link into the node it links to, whose path takes in the node's path and link
+     * @param n
+     * @return the linked node, which takes the place of n
      */
-    private void getAllWithPrefix (String prefix, Node<Value> n, List<Value> prefixValues) {
-        if (n.values != null && !n.values.isEmpty()) {
-            for (Value v : n.values) {
-                if (!prefixValues.contains(v)) {
-                    prefixValues.add(v);
+    private Node<Value> merge (Node<Value> n) {
+        int s = 0;
+        while (n.getSlot(s) == null) {
+            s++;
+        }
+        Node<Value> link = n.getSlot(s);
+        byte[] path = Arrays.copyOf(n.path, n.path.length + 1 + link.path.length);
+        path[n.path.length] = (byte)n.getSlotIndex(s);
+        System.arraycopy(link.path, 0, path, n.path.length + 1, link.path.length);
+        link.path = path;
+        return link;
+    }
+
+    /**
+     * Compacts the whole trie after bulk changes: every posting list is compacted (see PostingList.compact), and any node left without
+     * values is unlinked or merged as in deletion. Deletion already frees the nodes it empties, so this mostly reclaims the space
+     * the posting lists hold for removed ids. The TermDictionary is replaced by a new one of only the keys which still have values,
+     * so words no longer in any Document are dropped; anything holding ids from the old dictionary keeps it, and can still use them.
+     */
+    void vacuum () {
+        List<Node<Value>> nodes = new ArrayList<>();
+        this.forEachNode(this.root, nodes::add);
+        //every node comes after its parent, so going backwards a node's links are vacuumed before it is
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            Node<Value> n = nodes.get(i);
+            if (n.hasValues()) {
+                n.postings.compact();
+            }
+            else {
+                n.postings = null;
+            }
+            int[] indexes = new int[n.linkCount];
+            List<Node<Value>> links = new ArrayList<>(n.linkCount);
+            for (int s = 0; s < n.getSlotCount(); s++) {
+                if (n.getSlot(s) != null) {
+                    indexes[links.size()] = n.getSlotIndex(s);
+                    links.add(n.getSlot(s));
                 }
             }
-        }
-        for (Node<Value> link : n.links) {
-            if (link != null) {
-                this.getAllWithPrefix(prefix, link, prefixValues);
+            for (int l = 0; l < links.size(); l++) {
+                Node<Value> link = links.get(l);
+                if (!link.hasValues() && link.linkCount <= 1) {
+                    n.setLink(indexes[l], link.linkCount == 0 ? null : this.merge(link));
+                }
             }
         }
+        TermDictionary dictionary = new TermDictionary();
+        this.forEachKey((key, n) -> dictionary.getId(key));
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * @return number of nodes in the trie, including the root
+     */
+    int getNodeCount () {
+        int[] count = {0};
+        this.forEachNode(this.root, n -> count[0]++);
+        return count[0];
     }
 
     /**
@@ -203,46 +649,18 @@ public class TrieImpl<Value> implements Trie<Value> {
         if (key == null || val == null) {
             throw new IllegalArgumentException ("Argument must not be null.");
         }
-        Node<Value> deletionNode = this.get(this.root, key, 0);
-        if (deletionNode == null) {
+        List<Node<Value>> nodes = new ArrayList<>();
+        int[] indexes = new int[key.length()];
+        if (!this.getPath(key, false, nodes, indexes)) {
             return null;
         }
-        Value deletion = deletionNode.values.contains(val) ? deletionNode.values.get(deletionNode.values.indexOf(val)) : null;
-        if (deletion == null) {
+        Node<Value> deletionNode = nodes.get(nodes.size() - 1);
+        int id = this.ids.find(val);
+        if (id < 0 || !deletionNode.hasValues() || !deletionNode.postings.remove(id)) {
             return null;
         }
-        this.root = this.delete(this.root, key, val, 0);
-        return deletion;
-    }
-
-    /**
-     * Remove the given value from the node of the given key (private).
-     * @param n current node
-     * @param key 
-     * @param val
-     * @param d current depth
-     * @return if the node is still relevant - the node; if no longer relevant - null
-     */
-    private Node<Value> delete (Node<Value> n, String key, Value val, int d) {
-        if (n == null) {
-            return null;
-        }
-        if (d == key.length()) {
-            n.values.remove(val);
-        }
-        else {
-            int index = indexFunction(key.charAt(d));
-            n.links[index] = this.delete(n.links[index], key, val, d+1);       
-        }
-        if (n.values != null || !n.values.isEmpty()) {
-            return n;
-        }
-        for (Node<Value> link : n.links) {
-            if (link != null) {
-                return n;
-            }
-        }
-        return null;
+        this.prune(nodes, indexes);
+        return this.ids.get(id);
     }
 
     /**
@@ -259,39 +677,17 @@ public class TrieImpl<Value> implements Trie<Value> {
         if (key.isEmpty()) {
             return deletions;
         }
-        this.root = this.deleteAll(this.root, key, 0, deletions);
-        return deletions;
-    }
-
-    /**
-     * Delete all values from the node of the given key (private).
-     * @param n current node
-     * @param key 
-     * @param d current depth
-     * @param deletions current Set of deleted values
-     * @return if the node is still relevant - the node; if no longer relevant - null
-     */
-    private Node<Value> deleteAll (Node<Value> n, String key, int d, Set<Value> deletions) {
-        if (n == null) {
-            return null;
-        }
-        if (d == key.length()) {
-            deletions.addAll(n.values);
-            n.values.clear();
-        }
-        else {
-            int index = indexFunction(key.charAt(d));
-            n.links[index] = this.deleteAll(n.links[index], key, d+1, deletions);
-        }
-        if (n.values != null || !n.values.isEmpty()) {
-            return n;
-        }
-        for (Node<Value> link : n.links) {
-            if (link != null) {
-                return n;
+        List<Node<Value>> nodes = new ArrayList<>();
+        int[] indexes = new int[key.length()];
+        if (this.getPath(key, false, nodes, indexes)) {
+            Node<Value> n = nodes.get(nodes.size() - 1);
+            if (n.postings != null) {
+                deletions.addAll(this.getValues(n));
+                n.postings = null;
             }
+            this.prune(nodes, indexes);
         }
-        return null;
+        return deletions;
     }
 
     /**
@@ -309,41 +705,69 @@ public class TrieImpl<Value> implements Trie<Value> {
         if (prefix.isEmpty()) {
             return deletions;
         }
-        this.root = this.deleteAllWithPrefix(this.root, prefix, 0, deletions);
+        List<Node<Value>> nodes = new ArrayList<>();
+        int[] indexes = new int[prefix.length()];
+        if (this.getPath(prefix, true, nodes, indexes)) {
+            deletions.addAll(this.getAllWithPrefix(nodes.remove(nodes.size() - 1)));
+            nodes.get(nodes.size() - 1).setLink(indexes[nodes.size() - 1], null);
+            this.prune(nodes, indexes);
+        }
         return deletions;
     }
 
     /**
-     * Delete the subtree rooted at the last character of the prefix (private).
-     * @param n current node
-     * @param prefix
-     * @param d current depth
-     * @param deletions current set of deleted values
-     * @return if the node is still relevant - the node; if no longer relevant - null
+     * Call the action once for every key which has values, with a map of each of its values to that value's count.
+     * Keys are visited in order.
+     * @param action
      */
-    private Node<Value> deleteAllWithPrefix (Node<Value> n, String prefix, int d, Set<Value> deletions) {
-        if (n == null) {
-            return null;
-        }
-        if (d == prefix.length()) {
-            deletions.addAll(getAllWithPrefix(prefix));
-            n = null;
-        }
-        else {
-            int index = indexFunction(prefix.charAt(d));
-            n.links[index] = this.deleteAllWithPrefix(n.links[index], prefix, d+1, deletions);       
-        }
-        if (n != null) {
-            if (n.values != null || !n.values.isEmpty()) {
-                return n;
+    void forEach (BiConsumer<String, Map<Value, Integer>> action) {
+        if (action == null) {
+            throw new IllegalArgumentException("Action must not be null.");
+        }
+        this.forEachKey((key, n) -> {
+            Map<Value, Integer> counts = new LinkedHashMap<>();
+            n.postings.forEach((id, count) -> counts.put(this.ids.get(id), count));
+            action.accept(key, counts);
+        });
+    }
+
+    /**
+     * Call the action once for every key which has values, with the key's node. Keys are visited in order.
+     * @param action
+     */
+    private void forEachKey (BiConsumer<String, Node<Value>> action) {
+        Deque<Node<Value>> nodes = new ArrayDeque<>();
+        Deque<String> keys = new ArrayDeque<>();
+        nodes.push(this.root);
+        keys.push("");
+        while (!nodes.isEmpty()) {
+            Node<Value> n = nodes.pop();
+            String key = keys.pop();
+            if (n.hasValues()) {
+                action.accept(key, n);
             }
-            for (Node<Value> link : n.links) {
+            //pushed last to first, so they are popped in order
+            for (int s = n.getSlotCount() - 1; s >= 0; s--) {
+                Node<Value> link = n.getSlot(s);
                 if (link != null) {
-                    return n;
+                    StringBuilder linkKey = new StringBuilder(key).append(this.charFunction(n.getSlotIndex(s)));
+                    for (byte index : link.path) {
+                        linkKey.append(this.charFunction(index));
+                    }
+                    nodes.push(link);
+                    keys.push(linkKey.toString());
                 }
             }
         }
-        return null;
+    }
+
+    /**
+     * Return the char which the given index in the array stands for (the inverse of indexFunction)
+     * @param index
+     * @return upper case letter or digit
+     */
+    private char charFunction (int index) {
+        return (char)(index < 10 ? index+48 : index+55);
     }
 
     /**
@@ -0,0 +1,94 @@
+package edu.yu.cs.com1320.project.impl;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Middle tier between the Documents in memory and their files on disk: the bytes of the files of Documents which were moved out
+ * of memory, kept in least recently used order within a byte budget. What no longer fits is handed back to be written to disk.
+ */
+class WarmTier {
+
+    private LinkedHashMap<URI, byte[]> entries;
+    private long budget;
+    private long bytes;
+
+    /**
+     * @param budget maximum number of bytes to hold
+     */
+    WarmTier (long budget) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.budget = budget;
+    }
+
+    synchronized void setBudget (long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return number of bytes held
+     */
+    synchronized long getBytes () {
+        return this.bytes;
+    }
+
+    /**
+     * @param uri
+     * @param data serialized Document, replacing any held for the same URI
+     */
+    synchronized void put (URI uri, byte[] data) {
+        byte[] old = this.entries.put(uri, data);
+        this.bytes += data.length - (old == null ? 0 : old.length);
+    }
+
+    /**
+     * @param uri
+     * @return the serialized Document, or null if it is not held
+     */
+    synchronized byte[] get (URI uri) {
+        return this.entries.get(uri);
+    }
+
+    /**
+     * @param uri
+     * @return the serialized Document that was held, or null if there was none
+     */
+    synchronized byte[] remove (URI uri) {
+        byte[] old = this.entries.remove(uri);
+        if (old != null) {
+            this.bytes -= old.length;
+        }
+        return old;
+    }
+
+    /**
+     * Removes least recently used entries until the tier is within its budget
+     * @return the entries removed, least recently used first
+     */
+    synchronized List<Map.Entry<URI, byte[]>> overflow () {
+        List<Map.Entry<URI, byte[]>> removed = new ArrayList<>();
+        Iterator<Map.Entry<URI, byte[]>> iterator = this.entries.entrySet().iterator();
+        while (this.bytes > this.budget && iterator.hasNext()) {
+            Map.Entry<URI, byte[]> entry = iterator.next();
+            removed.add(Map.entry(entry.getKey(), entry.getValue()));
+            this.bytes -= entry.getValue().length;
+            iterator.remove();
+        }
+        return removed;
+    }
+
+    /**
+     * Removes every entry
+     * @return the entries removed, least recently used first
+     */
+    synchronized List<Map.Entry<URI, byte[]>> drain () {
+        List<Map.Entry<URI, byte[]>> removed = new ArrayList<>(this.entries.entrySet());
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.bytes = 0;
+        return removed;
+    }
+}
@@ -0,0 +1,394 @@
+package edu.yu.cs.com1320.project.impl;
+
+import edu.yu.cs.com1320.project.DocumentStore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Log of every operation that changes a DocumentStore, replayed when the store is constructed to recover its state after a crash.
+ * Each operation is appended once it has been applied and before the store returns to the caller.
+ * Records are framed as [length][crc32][type][payload]; a torn record at the end of the log (from a crash mid-append) is discarded on recovery.
+ * The log starts with the generation of the checkpoint it follows, so that a log already covered by a checkpoint is not replayed twice.
+ */
+public class WriteAheadLog implements Closeable {
+
+    /**
+     * When appended records are forced to the storage device
+     */
+    public enum SyncPolicy {
+        /** fsync after every operation */
+        EVERY_OPERATION,
+        /** group commit: fsync at most once every interval, covering every operation appended since the last one */
+        INTERVAL,
+        /** never fsync, leave flushing to the operating system */
+        OS
+    }
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte DELETE_ALL = 3;
+    private static final byte DELETE_ALL_WITH_PREFIX = 4;
+    private static final byte UNDO = 5;
+    private static final byte UNDO_URI = 6;
+    private static final byte PUT_BLOB = 7;
+    private static final int HEADER_SIZE = 8;
+    private static final int MAGIC = 0x4453574C; //"DSWL"
+    private static final int FILE_HEADER_SIZE = 12;
+
+    private FileChannel channel;
+    private long generation;
+    private long start; //position of the first record
+    private SyncPolicy policy;
+    private ScheduledExecutorService syncer;
+    private volatile boolean unsynced;
+
+    /**
+     * Constructor for WriteAheadLog which syncs every 100 milliseconds
+     * @param file the log file; created if it does not exist
+     * @throws IOException if the file cannot be opened
+     */
+    public WriteAheadLog (File file) throws IOException {
+        this(file, SyncPolicy.INTERVAL, 100);
+    }
+
+    /**
+     * Constructor for WriteAheadLog
+     * @param file the log file; created if it does not exist
+     * @param policy when appended records are forced to disk
+     * @param intervalMillis how often to sync under SyncPolicy.INTERVAL (ignored otherwise)
+     * @throws IOException if the file cannot be opened
+     */
+    public WriteAheadLog (File file, SyncPolicy policy, long intervalMillis) throws IOException {
+        if (file == null || policy == null) {
+            throw new IllegalArgumentException("File and SyncPolicy must not be null.");
+        }
+        if (policy == SyncPolicy.INTERVAL && intervalMillis <= 0) {
+            throw new IllegalArgumentException("Interval must be positive.");
+        }
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.policy = policy;
+        this.readFileHeader();
+        if (policy == SyncPolicy.INTERVAL) {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "wal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.syncer.scheduleWithFixedDelay(this::syncQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Reads the generation from the start of the file, writing a header for generation 0 (no checkpoint yet) if the file is new.
+     * A log written before the header existed is treated as generation 0.
+     */
+    private void readFileHeader () throws IOException {
+        if (this.channel.size() == 0) {
+            this.reset(0);
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        this.channel.read(header, 0);
+        header.flip();
+        boolean hasHeader = header.remaining() == FILE_HEADER_SIZE && header.getInt() == MAGIC;
+        this.generation = hasHeader ? header.getLong() : 0;
+        this.start = hasHeader ? FILE_HEADER_SIZE : 0;
+        this.channel.position(this.channel.size());
+    }
+
+    /**
+     * @return the generation of the checkpoint this log follows; the log holds every operation made since that checkpoint
+     */
+    public long getGeneration () {
+        return this.generation;
+    }
+
+    /**
+     * Discards every record and starts the log over for the given generation (called once a checkpoint has made the records redundant).
+     * @param generation
+     * @throws IOException
+     */
+    synchronized void reset (long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(MAGIC).putLong(generation).flip();
+        this.channel.truncate(0);
+        while (header.hasRemaining()) {
+            this.channel.write(header, header.position());
+        }
+        this.channel.force(false);
+        this.channel.position(FILE_HEADER_SIZE);
+        this.generation = generation;
+        this.start = FILE_HEADER_SIZE;
+        this.unsynced = false;
+    }
+
+    /**
+     * Replays every complete record in the log against the store, then truncates any torn record at the end.
+     * The store must not log the replayed operations again.
+     * @param store the store to recover
+     * @throws IOException if the log cannot be read
+     */
+    public void recover (DocumentStoreImpl store) throws IOException {
+        long position = this.start;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (true) {
+            header.clear();
+            if (this.channel.read(header, position) < HEADER_SIZE) {
+                break;
+            }
+            byte[] record = this.readRecord(header.flip().getInt(), header.getInt(), position + HEADER_SIZE);
+            if (record == null) {
+                break;
+            }
+            this.apply(store, new DataInputStream(new ByteArrayInputStream(record)));
+            position += HEADER_SIZE + record.length;
+        }
+        this.channel.truncate(position);
+        this.channel.position(position);
+    }
+
+    /**
+     * @param length length of the record, from its header
+     * @param crc checksum of the record, from its header
+     * @param position where the record starts
+     * @return the record, or null if it is incomplete or does not match its checksum
+     */
+    private byte[] readRecord (int length, int crc, long position) throws IOException {
+        if (length <= 0 || length > this.channel.size() - position) {
+            return null;
+        }
+        ByteBuffer record = ByteBuffer.allocate(length);
+        while (record.hasRemaining()) {
+            if (this.channel.read(record, position + record.position()) <= 0) {
+                return null;
+            }
+        }
+        CRC32 check = new CRC32();
+        check.update(record.array());
+        return (int)check.getValue() == crc ? record.array() : null;
+    }
+
+    /**
+     * Applies one logged operation to the store.
+     * An operation that failed when it was logged fails the same way here, so its exception is ignored.
+     * @param store
+     * @param in the record
+     */
+    private void apply (DocumentStoreImpl store, DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        try {
+            this.applyRecord(store, type, in);
+        }
+        catch (IllegalStateException | IllegalArgumentException e) {
+            //the operation failed the same way when it was first applied
+        }
+    }
+
+    private void applyRecord (DocumentStoreImpl store, byte type, DataInputStream in) throws IOException {
+        switch (type) {
+            case PUT:
+                this.applyPut(store, in);
+                break;
+            case PUT_BLOB:
+                this.applyPutBlob(store, in);
+                break;
+            case DELETE:
+                store.deleteDocument(this.readUri(in));
+                break;
+            case DELETE_ALL:
+                store.deleteAll(in.readUTF());
+                break;
+            case DELETE_ALL_WITH_PREFIX:
+                store.deleteAllWithPrefix(in.readUTF());
+                break;
+            case UNDO:
+                store.undo();
+                break;
+            case UNDO_URI:
+                store.undo(this.readUri(in));
+                break;
+            default:
+                throw new IOException("Unknown log record type " + type);
+        }
+    }
+
+    private void applyPut (DocumentStoreImpl store, DataInputStream in) throws IOException {
+        URI uri = this.readUri(in);
+        DocumentStore.DocumentFormat format = DocumentStore.DocumentFormat.values()[in.readByte()];
+        store.putDocument(new ByteArrayInputStream(in.readNBytes(in.readInt())), uri, format);
+    }
+
+    /**
+     * Puts the blob back into the store from the file it was logged with, without reading or copying the file
+     */
+    private void applyPutBlob (DocumentStoreImpl store, DataInputStream in) throws IOException {
+        URI uri = this.readUri(in);
+        File blob = new File(in.readUTF());
+        long length = in.readLong();
+        int dataHash = in.readInt();
+        if (blob.length() != length) {
+            throw new IOException("Blob file " + blob + " of " + uri + " is missing or has changed.");
+        }
+        store.putBlob(new DocumentImpl(uri, blob, length, dataHash));
+    }
+
+    private URI readUri (DataInputStream in) throws IOException {
+        try {
+            return new URI(in.readUTF());
+        }
+        catch (URISyntaxException e) {
+            throw new IOException("Log contains an invalid URI.", e);
+        }
+    }
+
+    /**
+     * Logs a putDocument with non-null input.
+     * @param uri
+     * @param format
+     * @param content the bytes that were read from the input
+     * @throws IOException if the record cannot be written
+     */
+    void logPut (URI uri, DocumentStore.DocumentFormat format, byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(PUT);
+        out.writeUTF(uri.toString());
+        out.writeByte(format.ordinal());
+        out.writeInt(content.length);
+        out.write(content);
+        this.append(bytes.toByteArray());
+    }
+
+    /**
+     * Logs a putDocument of a blob, whose data was already forced to disk in the blob file. The blob file must not change or be deleted while the log refers to it.
+     * Its length and hash are logged with it, so that replaying the put does not have to read the file.
+     * @param uri
+     * @param blob Document holding the metadata of the blob
+     * @throws IOException if the record cannot be written
+     */
+    void logPutBlob (URI uri, DocumentImpl blob) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(PUT_BLOB);
+        out.writeUTF(uri.toString());
+        out.writeUTF(blob.getBlobFile().getAbsolutePath());
+        out.writeLong(blob.getBlobLength());
+        out.writeInt(blob.getBlobHash());
+        this.append(bytes.toByteArray());
+    }
+
+    /**
+     * Logs a deleteDocument, or a putDocument with null input.
+     * @param uri
+     * @throws IOException if the record cannot be written
+     */
+    void logDelete (URI uri) throws IOException {
+        this.append(this.record(DELETE, uri.toString()));
+    }
+
+    /**
+     * @param keyword the keyword exactly as it was passed to deleteAll
+     * @throws IOException if the record cannot be written
+     */
+    void logDeleteAll (String keyword) throws IOException {
+        this.append(this.record(DELETE_ALL, keyword));
+    }
+
+    /**
+     * @param keywordPrefix the prefix exactly as it was passed to deleteAllWithPrefix
+     * @throws IOException if the record cannot be written
+     */
+    void logDeleteAllWithPrefix (String keywordPrefix) throws IOException {
+        this.append(this.record(DELETE_ALL_WITH_PREFIX, keywordPrefix));
+    }
+
+    /**
+     * Logs a successful undo.
+     * @param uri the URI passed to undo(URI), or null for undo()
+     * @throws IOException if the record cannot be written
+     */
+    void logUndo (URI uri) throws IOException {
+        this.append(uri == null ? new byte[]{UNDO} : this.record(UNDO_URI, uri.toString()));
+    }
+
+    private byte[] record (byte type, String argument) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(argument.length() + 8);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        out.writeUTF(argument);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Frames the record with its length and checksum and appends it, syncing if the policy calls for it.
+     * @param record
+     * @throws IOException if the record cannot be written
+     */
+    private synchronized void append (byte[] record) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + record.length);
+        buffer.putInt(record.length).putInt((int)crc.getValue()).put(record).flip();
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer);
+        }
+        this.unsynced = true;
+        if (this.policy == SyncPolicy.EVERY_OPERATION) {
+            this.sync();
+        }
+    }
+
+    /**
+     * Forces every record appended so far to the storage device.
+     * @throws IOException
+     */
+    public void sync () throws IOException {
+        if (this.unsynced) {
+            this.unsynced = false;
+            this.channel.force(false);
+        }
+    }
+
+    private void syncQuietly () {
+        try {
+            this.sync();
+        }
+        catch (IOException e) {
+            this.unsynced = true;
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Syncs and closes the log.
+     * @throws IOException
+     */
+    @Override
+    public void close () throws IOException {
+        if (this.syncer != null) {
+            this.syncer.shutdown();
+        }
+        if (this.channel.isOpen()) {
+            this.sync();
+            this.channel.close();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package edu.yu.cs.com1320.project.impl;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AnalyzerTest {
+
+    @Test
+    public void normalizeMatchesTheOldFormatter() {
+        String[] strings = {"Hello", "HELLO 42", "don't", "café-au-lait", "tab\there", "", "!?", "a b  c"};
+        for (String string : strings) {
+            String expected = string.replaceAll("[^A-Za-z0-9 ]", "").toUpperCase();
+            assertEquals(expected, Analyzer.DEFAULT.normalize(string), string);
+        }
+    }
+
+    @Test
+    public void normalizedStringIsNotCopied() {
+        String keyword = "ALREADY NORMAL 123";
+        assertSame(keyword, Analyzer.DEFAULT.normalize(keyword));
+    }
+}
@@ -0,0 +1,116 @@
+package edu.yu.cs.com1320.project.impl;
+
+import edu.yu.cs.com1320.project.Document;
+import edu.yu.cs.com1320.project.DocumentStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncDocumentStoreTest {
+
+    private File baseDir;
+
+    @BeforeEach
+    public void init() throws Exception {
+        this.baseDir = Files.createTempDirectory("async").toFile();
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        TestUtils.deleteTree(this.baseDir);
+        this.baseDir.delete();
+    }
+
+    private URI uri(int i) throws Exception {
+        return new URI("http://edu.yu.cs/com1320/project/doc" + i);
+    }
+
+    private String txt(int i) {
+        return "This is the text of doc" + i;
+    }
+
+    @Test
+    public void manyColdReadsInFlight() throws Exception {
+        DocumentPersistenceManager pm = new DocumentPersistenceManager(this.baseDir);
+        pm.setIoExecutor(Executors.newFixedThreadPool(4));
+        DocumentStoreImpl store = new DocumentStoreImpl(pm);
+        store.setMaxDocumentCount(1);
+        for (int i = 0; i < 20; i++) {
+            store.putDocument(new ByteArrayInputStream(this.txt(i).getBytes()), this.uri(i), DocumentStore.DocumentFormat.TXT);
+        }
+        AsyncDocumentStore async = new AsyncDocumentStore(store);
+        List<CompletableFuture<Document>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(async.getDocumentAsync(this.uri(i)));
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals(this.txt(i), futures.get(i).join().getDocumentTxt());
+        }
+        //the memory limit still holds: every document but one is back on disk
+        int onDisk = 0;
+        for (int i = 0; i < 20; i++) {
+            if (TestUtils.uriToFile(this.baseDir, this.uri(i)).exists()) {
+                onDisk++;
+            }
+        }
+        assertEquals(19, onDisk);
+    }
+
+    @Test
+    public void storeChangesWinOverReadsInFlight() throws Exception {
+        //hold back every read so that it cannot complete until doc1 has been replaced (the I/O threads stay free for writes)
+        CompletableFuture<Void> replaced = new CompletableFuture<>();
+        DocumentPersistenceManager pm = new DocumentPersistenceManager(this.baseDir) {
+            @Override
+            public CompletableFuture<Document> deserializeAsync(URI uri) {
+                return super.deserializeAsync(uri).thenCombine(replaced, (doc, ignored) -> doc);
+            }
+        };
+        DocumentStoreImpl store = new DocumentStoreImpl(pm);
+        store.setMaxDocumentCount(1);
+        store.putDocument(new ByteArrayInputStream(this.txt(1).getBytes()), this.uri(1), DocumentStore.DocumentFormat.TXT);
+        store.putDocument(new ByteArrayInputStream(this.txt(2).getBytes()), this.uri(2), DocumentStore.DocumentFormat.TXT);
+        CompletableFuture<Document> future = new AsyncDocumentStore(store).getDocumentAsync(this.uri(1));
+        store.putDocument(new ByteArrayInputStream(this.txt(3).getBytes()), this.uri(1), DocumentStore.DocumentFormat.TXT);
+        replaced.complete(null);
+        assertEquals(this.txt(3), future.join().getDocumentTxt());
+        assertEquals(this.txt(3), store.getDocument(this.uri(1)).getDocumentTxt());
+        assertNull(new AsyncDocumentStore(store).getDocumentAsync(this.uri(4)).join());
+    }
+
+    @Test
+    public void staleReadDoesNotReplaceNewerVersionOnDisk() throws Exception {
+        //the read of doc1 finishes with the first version, but is held back until a second version has been put and moved to disk
+        CompletableFuture<Void> evicted = new CompletableFuture<>();
+        DocumentPersistenceManager pm = new DocumentPersistenceManager(this.baseDir) {
+            @Override
+            public CompletableFuture<Document> deserializeAsync(URI uri) {
+                CompletableFuture<Document> read = super.deserializeAsync(uri);
+                read.join();
+                return read.thenCombine(evicted, (doc, ignored) -> doc);
+            }
+        };
+        DocumentStoreImpl store = new DocumentStoreImpl(pm);
+        store.putDocument(new ByteArrayInputStream(this.txt(1).getBytes()), this.uri(1), DocumentStore.DocumentFormat.TXT);
+        store.setMaxDocumentCount(0);
+        CompletableFuture<Document> future = new AsyncDocumentStore(store).getDocumentAsync(this.uri(1));
+        store.setMaxDocumentCount(1);
+        store.putDocument(new ByteArrayInputStream(this.txt(2).getBytes()), this.uri(1), DocumentStore.DocumentFormat.TXT);
+        store.setMaxDocumentCount(0);
+        evicted.complete(null);
+        assertEquals(this.txt(2), future.join().getDocumentTxt(), "the stale first version should have been dropped");
+        assertTrue(TestUtils.uriToFile(this.baseDir, this.uri(1)).exists(), "the second version's file should not have been deleted");
+        assertEquals(this.txt(2), store.getDocument(this.uri(1)).getDocumentTxt());
+    }
+}
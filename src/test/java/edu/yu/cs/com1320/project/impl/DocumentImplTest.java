@@ -4,6 +4,9 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -49,6 +52,18 @@ public class DocumentImplTest {
         assertEquals(1, textDocument.wordCount("tHis"));
     }
 
+    @Test
+    public void getWordsIsCachedAndUnmodifiable() {
+        DocumentImpl textDocument = new DocumentImpl(this.textUri, this.textString);
+        Set<String> words = textDocument.getWords();
+        assertEquals(Set.of("THIS", "IS", "TEXT", "CONTENT", "LOTS", "OF", "IT"), words);
+        assertSame(words, textDocument.getWords(), "the words should not be worked out again");
+        assertThrows(UnsupportedOperationException.class, () -> words.remove("THIS"));
+        textDocument.setWordMap(new HashMap<>(Map.of("OTHER", 2)));
+        assertEquals(Set.of("OTHER"), textDocument.getWords());
+        assertTrue(new DocumentImpl(this.binaryUri, this.binaryData).getWords().isEmpty());
+    }
+
     //stage 1 tests
     @Test
     public void testGetTextDocumentAsTxt() {
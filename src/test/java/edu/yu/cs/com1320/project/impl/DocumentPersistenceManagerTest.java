@@ -8,8 +8,17 @@ import org.junit.jupiter.api.Test;
 import java.io.File;
 import java.net.URI;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class DocumentPersistenceManagerTest {
@@ -89,4 +98,221 @@ public class DocumentPersistenceManagerTest {
         TestUtils.equalButNotIdentical(this.doc2,dpm.deserialize(this.uri2));
         TestUtils.equalButNotIdentical(this.doc3,dpm.deserialize(this.uri3));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void compressedSerializationRoundTrip()throws Exception{
+        DocumentPersistenceManager dpm = new DocumentPersistenceManager(this.baseDir);
+        dpm.setCompressionLevel(9);
+        dpm.setCompressionThreshold(0);
+        Document big = new DocumentImpl(this.uri1,this.txt1.repeat(50));
+        dpm.serialize(this.uri1,big);
+        String contents = TestUtils.getContents(this.baseDir,this.uri1);
+        assertFalse(contents.contains(this.txt1),"compressed file should not contain the plain text");
+        assertTrue(TestUtils.uriToFile(this.baseDir,this.uri1).length() < this.txt1.length() * 10,"file should be much smaller than the text");
+        Document read = dpm.deserialize(this.uri1);
+        assertEquals(big.getDocumentTxt(),read.getDocumentTxt());
+        assertEquals(big.getWordMap(),read.getWordMap());
+    }
+
+    @Test
+    public void compressedSerializationWithDictionary()throws Exception{
+        DocumentPersistenceManager dpm = new DocumentPersistenceManager(this.baseDir);
+        dpm.setCompressionLevel(6);
+        dpm.setCompressionThreshold(0);
+        dpm.trainCompressionDictionary(List.of(this.doc1,this.doc2));
+        dpm.serialize(this.uri3,this.doc3);
+        //a fresh manager must find the dictionary that was saved under the base directory
+        Document read = new DocumentPersistenceManager(this.baseDir).deserialize(this.uri3);
+        assertTrue(TestUtils.equalButNotIdentical(this.doc3,read));
+    }
+
+    @Test
+    public void documentsCompressedWithAnOlderDictionaryStayReadable()throws Exception{
+        DocumentPersistenceManager dpm = new DocumentPersistenceManager(this.baseDir);
+        dpm.setCompressionLevel(6);
+        dpm.setCompressionThreshold(0);
+        dpm.trainCompressionDictionary(List.of(this.doc1));
+        dpm.serialize(this.uri1,this.doc1);
+        dpm.trainCompressionDictionary(List.of(this.doc2,this.doc3));
+        dpm.serialize(this.uri2,this.doc2);
+        assertTrue(TestUtils.getContents(this.baseDir,this.uri1).contains("DSZ1") && TestUtils.getContents(this.baseDir,this.uri2).contains("DSZ1"));
+        DocumentPersistenceManager reopened = new DocumentPersistenceManager(this.baseDir);
+        assertEquals(this.txt1,reopened.deserialize(this.uri1).getDocumentTxt());
+        assertEquals(this.txt2,reopened.deserializeAsync(this.uri2).join().getDocumentTxt());
+    }
+
+    @Test
+    public void alreadyCompressedBinaryIsNotCompressedAgain()throws Exception{
+        DocumentPersistenceManager dpm = new DocumentPersistenceManager(this.baseDir);
+        dpm.setCompressionLevel(9);
+        dpm.setCompressionThreshold(0);
+        byte[] gzip = new byte[2048];
+        gzip[0] = (byte)0x1F;
+        gzip[1] = (byte)0x8B;
+        dpm.serialize(this.uri2,new DocumentImpl(this.uri2,gzip));
+        assertFalse(TestUtils.getContents(this.baseDir,this.uri2).contains("DSZ1"),"already compressed binary should be written as plain JSON");
+        assertArrayEquals(gzip,dpm.deserialize(this.uri2).getDocumentBinaryData());
+    }
+
+    @Test
+    public void asyncSerializationRoundTrip()throws Exception{
+        DocumentPersistenceManager dpm = new DocumentPersistenceManager(this.baseDir);
+        dpm.setCompressionLevel(6);
+        dpm.setCompressionThreshold(0);
+        dpm.serializeAsync(this.uri1,this.doc1).join();
+        dpm.serializeAsync(this.uri2,this.doc2).join();
+        assertEquals(this.txt1,dpm.deserializeAsync(this.uri1).join().getDocumentTxt());
+        assertEquals(this.txt2,dpm.deserializeAsync(this.uri2).join().getDocumentTxt());
+        assertTrue(TestUtils.uriToFile(this.baseDir,this.uri1).exists(),"deserializeAsync should leave the file on disk");
+        assertNull(dpm.deserializeAsync(this.uri3).join(),"a document that was never written should be null");
+    }
+
+    @Test
+    public void hashedLayoutRoundTrip()throws Exception{
+        DocumentPersistenceManager dpm = new DocumentPersistenceManager(this.baseDir);
+        dpm.setLayout(DocumentPersistenceManager.Layout.HASHED);
+        dpm.serialize(this.uri1,this.doc1);
+        dpm.serialize(this.uri2,this.doc2);
+        assertFalse(TestUtils.uriToFile(this.baseDir,this.uri1).exists(),"hashed layout should not mirror the URI");
+        assertEquals(2,this.countDocumentFiles(),"each document should have its own file");
+        //a fresh manager must find the layout that was saved under the base directory
+        DocumentPersistenceManager reopened = new DocumentPersistenceManager(this.baseDir);
+        assertEquals(DocumentPersistenceManager.Layout.HASHED,reopened.getLayout());
+        assertTrue(TestUtils.equalButNotIdentical(this.doc1,reopened.deserialize(this.uri1)));
+        assertTrue(reopened.delete(this.uri2));
+        assertEquals(0,this.countDocumentFiles());
+    }
+
+    @Test
+    public void migrateBetweenLayouts()throws Exception{
+        DocumentPersistenceManager dpm = new DocumentPersistenceManager(this.baseDir);
+        dpm.setCompressionLevel(6);
+        dpm.setCompressionThreshold(0);
+        dpm.serialize(this.uri1,this.doc1);
+        dpm.serialize(this.uri2,this.doc2);
+        dpm.serialize(this.uri3,this.doc3);
+        assertEquals(3,dpm.migrate(DocumentPersistenceManager.Layout.HASHED));
+        assertFalse(TestUtils.uriToFile(this.baseDir,this.uri1).getParentFile().exists(),"emptied directories should be removed");
+        assertEquals(0,dpm.migrate(DocumentPersistenceManager.Layout.HASHED),"files already in place should not be moved");
+        DocumentPersistenceManager reopened = new DocumentPersistenceManager(this.baseDir);
+        assertEquals(this.txt3,reopened.deserialize(this.uri3).getDocumentTxt());
+        assertEquals(2,reopened.migrate(DocumentPersistenceManager.Layout.DIRECT));
+        assertTrue(TestUtils.uriToFile(this.baseDir,this.uri1).exists());
+        assertEquals(this.txt2,new DocumentPersistenceManager(this.baseDir).deserialize(this.uri2).getDocumentTxt());
+    }
+
+    @Test
+    public void stripedAcrossDirectories()throws Exception{
+        List<File> dirs = List.of(new File(this.baseDir,"disk0"),new File(this.baseDir,"disk1"),new File(this.baseDir,"disk2"));
+        DocumentPersistenceManager dpm = new DocumentPersistenceManager(dirs);
+        for (int i = 0; i < 30; i++) {
+            URI uri = new URI("http://edu.yu.cs/com1320/project/striped" + i);
+            if (i % 2 == 0) {
+                dpm.serialize(uri,new DocumentImpl(uri,"striped text " + i));
+            }
+            else {
+                dpm.serializeAsync(uri,new DocumentImpl(uri,"striped text " + i)).join();
+            }
+        }
+        for (File dir : dirs) {
+            assertTrue(dir.exists() && dir.list().length > 0,"every directory should hold some of the documents");
+        }
+        DocumentPersistenceManager reopened = new DocumentPersistenceManager(dirs);
+        for (int i = 0; i < 30; i++) {
+            URI uri = new URI("http://edu.yu.cs/com1320/project/striped" + i);
+            Document read = i % 2 == 0 ? reopened.deserialize(uri) : reopened.deserializeAsync(uri).join();
+            assertEquals("striped text " + i,read.getDocumentTxt());
+        }
+    }
+
+    @Test
+    public void migrateRestripesAcrossNewDirectories()throws Exception{
+        DocumentPersistenceManager dpm = new DocumentPersistenceManager(List.of(this.baseDir));
+        dpm.serialize(this.uri1,this.doc1);
+        dpm.serialize(this.uri2,this.doc2);
+        dpm.serialize(this.uri3,this.doc3);
+        File extra = Files.createTempDirectory("stage5-extra").toFile();
+        try {
+            DocumentPersistenceManager striped = new DocumentPersistenceManager(List.of(this.baseDir,extra));
+            striped.migrate(DocumentPersistenceManager.Layout.HASHED);
+            assertEquals(this.txt1,striped.deserialize(this.uri1).getDocumentTxt());
+            assertEquals(this.txt2,striped.deserialize(this.uri2).getDocumentTxt());
+            assertEquals(this.txt3,striped.deserialize(this.uri3).getDocumentTxt());
+        }
+        finally {
+            TestUtils.deleteTree(extra);
+            extra.delete();
+        }
+    }
+
+    @Test
+    public void corruptFilesAreDetected()throws Exception{
+        DocumentPersistenceManager dpm = new DocumentPersistenceManager(this.baseDir);
+        dpm.serialize(this.uri1,this.doc1);
+        dpm.serialize(this.uri2,this.doc2);
+        dpm.serialize(this.uri3,this.doc3);
+        assertTrue(dpm.verify().isEmpty());
+        //doc1 is cut short as by a crash in the middle of a write, and one byte of doc2 is flipped
+        File file1 = TestUtils.uriToFile(this.baseDir,this.uri1);
+        byte[] data1 = Files.readAllBytes(file1.toPath());
+        Files.write(file1.toPath(),Arrays.copyOf(data1,data1.length / 2));
+        File file2 = TestUtils.uriToFile(this.baseDir,this.uri2);
+        byte[] data2 = Files.readAllBytes(file2.toPath());
+        data2[10] ^= 1;
+        Files.write(file2.toPath(),data2);
+        File leftover = new File(TestUtils.uriToFile(this.baseDir,this.uri3).getParentFile(),"doc2.json.tmp");
+        Files.write(leftover.toPath(),data2);
+        List<File> corrupt = dpm.verify();
+        assertEquals(2,corrupt.size());
+        assertTrue(corrupt.contains(file1) && corrupt.contains(file2));
+        assertFalse(leftover.exists(),"verify should delete files left by interrupted writes");
+        CorruptDocumentException e = assertThrows(CorruptDocumentException.class,() -> dpm.deserialize(this.uri2));
+        assertEquals(file2,e.getFile());
+        assertThrows(CorruptDocumentException.class,() -> dpm.deserialize(this.uri1));
+        assertTrue(assertThrows(CompletionException.class,() -> dpm.deserializeAsync(this.uri2).join()).getCause() instanceof CorruptDocumentException);
+        assertEquals(this.txt3,dpm.deserialize(this.uri3).getDocumentTxt());
+    }
+
+    @Test
+    public void truncatedCompressedFilesAreDetected()throws Exception{
+        DocumentPersistenceManager dpm = new DocumentPersistenceManager(this.baseDir);
+        dpm.setCompressionLevel(6);
+        dpm.setCompressionThreshold(0);
+        dpm.serialize(this.uri1,new DocumentImpl(this.uri1,this.txt1.repeat(20)));
+        dpm.serialize(this.uri2,new DocumentImpl(this.uri2,this.txt2.repeat(20)));
+        File file1 = TestUtils.uriToFile(this.baseDir,this.uri1);
+        byte[] data1 = Files.readAllBytes(file1.toPath());
+        Files.write(file1.toPath(),Arrays.copyOf(data1,data1.length - 20));
+        //doc2 is rewritten as an old file with neither header nor trailer, and then cut short
+        File file2 = TestUtils.uriToFile(this.baseDir,this.uri2);
+        byte[] data2 = Files.readAllBytes(file2.toPath());
+        Files.write(file2.toPath(),Arrays.copyOfRange(data2,4,data2.length - 30));
+        List<File> corrupt = dpm.verify();
+        assertEquals(2,corrupt.size());
+        assertTrue(corrupt.contains(file1) && corrupt.contains(file2));
+        assertThrows(CorruptDocumentException.class,() -> dpm.deserialize(this.uri1));
+        assertThrows(CorruptDocumentException.class,() -> dpm.deserialize(this.uri2));
+    }
+
+    @Test
+    public void oldFilesWithoutHeaderAreStillRead()throws Exception{
+        DocumentPersistenceManager dpm = new DocumentPersistenceManager(this.baseDir);
+        dpm.setKeepFilesOnLoad(true);
+        dpm.serialize(this.uri1,this.doc1);
+        File file1 = TestUtils.uriToFile(this.baseDir,this.uri1);
+        byte[] data1 = Files.readAllBytes(file1.toPath());
+        //with the trailer only, and with neither header nor trailer
+        Files.write(file1.toPath(),Arrays.copyOfRange(data1,4,data1.length));
+        assertTrue(dpm.verify().isEmpty());
+        assertEquals(this.txt1,dpm.deserialize(this.uri1).getDocumentTxt());
+        Files.write(file1.toPath(),Arrays.copyOfRange(data1,4,data1.length - 12));
+        assertTrue(dpm.verify().isEmpty());
+        assertEquals(this.txt1,dpm.deserialize(this.uri1).getDocumentTxt());
+    }
+
+    private long countDocumentFiles()throws Exception{
+        try (Stream<Path> paths = Files.walk(this.baseDir.toPath())) {
+            return paths.filter(path -> path.toString().endsWith(".json")).count();
+        }
+    }
+}
@@ -9,10 +9,18 @@ import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.util.Arrays;
 import java.util.List;
 import java.io.File;
 import java.nio.file.Files;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -528,4 +536,190 @@ public class DocumentStoreImplTest {
         //should return false if I try to delete something that was never there to begin with
         assertEquals(false,store.deleteDocument(this.uri2),"failed to return false when trying to delete that which was never there to begin with");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void idOfDeletedDocumentIsReusedWithoutMixingUpSearches() throws IOException {
+        DocumentStore store = new DocumentStoreImpl();
+        store.putDocument(new ByteArrayInputStream(this.txt1.getBytes()),this.uri1, DocumentStore.DocumentFormat.TXT);
+        store.deleteAll("doc1");
+        //doc2 is given doc1's freed id, so none of doc1's words may still point at it
+        store.putDocument(new ByteArrayInputStream(this.txt2.getBytes()),this.uri2, DocumentStore.DocumentFormat.TXT);
+        assertTrue(store.search("computer").isEmpty(), "a deleted document's words should not find the document which reused its id");
+        assertEquals(this.uri2, store.search("plain").get(0).getKey());
+        assertEquals(1, store.search("plain").size());
+        store.undo(this.uri2);
+        store.undo();
+        assertEquals(this.uri1, store.search("computer").get(0).getKey());
+        assertEquals(1, store.search("computer").size());
+        store.deleteDocument(this.uri1);
+        store.putDocument(new ByteArrayInputStream(this.txt3.getBytes()),this.uri3, DocumentStore.DocumentFormat.TXT);
+        assertTrue(store.search("headphones").isEmpty());
+        assertEquals(this.uri3, store.search("doc3").get(0).getKey());
+        assertEquals(1, store.search("doc3").size());
+    }
+
+    @Test
+    public void cleanDocumentIsNotWrittenAgain() throws IOException {
+        int[] writes = {0};
+        DocumentPersistenceManager pm = new DocumentPersistenceManager(this.baseDir) {
+            @Override
+            public void serialize(URI uri, Document val) throws IOException {
+                writes[0]++;
+                super.serialize(uri, val);
+            }
+        };
+        pm.setKeepFilesOnLoad(true);
+        DocumentStoreImpl store = new DocumentStoreImpl(pm);
+        store.setMaxDocumentCount(1);
+        store.putDocument(new ByteArrayInputStream(this.txt1.getBytes()),this.uri1, DocumentStore.DocumentFormat.TXT);
+        store.putDocument(new ByteArrayInputStream(this.txt2.getBytes()),this.uri2, DocumentStore.DocumentFormat.TXT);
+        assertEquals(1,writes[0],"doc1 should have been written once");
+        //bring doc1 back, pushing doc2 out; doc1's file stays on disk
+        store.getDocument(this.uri1);
+        assertEquals(2,writes[0]);
+        assertNotNull(TestUtils.getContents(this.baseDir,this.uri1),"doc1 should still be on disk");
+        //doc1 is unchanged, so pushing it out again needs no write
+        store.getDocument(this.uri2);
+        assertEquals(2,writes[0],"clean doc1 should not have been written again");
+        assertEquals(this.txt1,store.getDocument(this.uri1).getDocumentTxt());
+        //a modified doc is written
+        store.putDocument(new ByteArrayInputStream(this.txt3.getBytes()),this.uri1, DocumentStore.DocumentFormat.TXT);
+        store.getDocument(this.uri2);
+        assertEquals(3,writes[0],"modified doc1 should have been written");
+        assertTrue(TestUtils.getContents(this.baseDir,this.uri1).contains(this.txt3));
+    }
+
+    @Test
+    public void diskHitsOfSearchAreReadAsynchronously() throws IOException {
+        int[] reads = {0};
+        DocumentPersistenceManager pm = new DocumentPersistenceManager(this.baseDir) {
+            @Override
+            public Document deserialize(URI uri) throws IOException {
+                reads[0]++;
+                return super.deserialize(uri);
+            }
+        };
+        DocumentStoreImpl store = new DocumentStoreImpl(pm);
+        for (int i = 1; i <= 5; i++) {
+            store.putDocument(new ByteArrayInputStream(("plain ".repeat(i) + "doc" + i).getBytes()),URI.create("http://edu.yu.cs/com1320/project/prefetch" + i), DocumentStore.DocumentFormat.TXT);
+        }
+        store.setMaxDocumentCount(1);
+        store.setMaxDocumentCount(10);
+        List<Document> results = store.search("plain");
+        assertEquals(5,results.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(URI.create("http://edu.yu.cs/com1320/project/prefetch" + (5 - i)),results.get(i).getKey());
+        }
+        assertEquals(0,reads[0],"disk hits should have been read asynchronously, not one at a time");
+        assertNull(TestUtils.getContents(this.baseDir,URI.create("http://edu.yu.cs/com1320/project/prefetch1")),"file should be deleted once the doc is back in memory");
+        assertEquals(5,store.searchByPrefix("doc").size());
+    }
+
+    @Test
+    public void searchDoesNotWaitForReadsWhileHoldingTheLock() throws Exception {
+        //each read only completes after another thread has taken the store's lock, as completing an asynchronous get does
+        DocumentStoreImpl[] holder = new DocumentStoreImpl[1];
+        DocumentPersistenceManager pm = new DocumentPersistenceManager(this.baseDir) {
+            @Override
+            public CompletableFuture<Document> deserializeAsync(URI uri) {
+                return super.deserializeAsync(uri).thenApplyAsync(doc -> {
+                    holder[0].getDocument(URI.create("http://edu.yu.cs/com1320/project/missing"));
+                    return doc;
+                });
+            }
+        };
+        DocumentStoreImpl store = new DocumentStoreImpl(pm);
+        holder[0] = store;
+        store.putDocument(new ByteArrayInputStream(this.txt1.getBytes()),this.uri1, DocumentStore.DocumentFormat.TXT);
+        store.putDocument(new ByteArrayInputStream(this.txt2.getBytes()),this.uri2, DocumentStore.DocumentFormat.TXT);
+        store.setMaxDocumentCount(0);
+        store.setMaxDocumentCount(10);
+        List<Document> results = assertTimeoutPreemptively(Duration.ofSeconds(10),() -> store.search("plain"));
+        assertEquals(2,results.size());
+        assertEquals(1,assertTimeoutPreemptively(Duration.ofSeconds(10),() -> store.searchByPrefix("computer")).size());
+    }
+
+    @Test
+    public void evictionsToDifferentDirectoriesRunInParallel() throws Exception {
+        List<File> dirs = List.of(new File(this.baseDir,"disk0"),new File(this.baseDir,"disk1"));
+        DocumentPersistenceManager pm = new DocumentPersistenceManager(dirs);
+        //each directory gets one I/O thread, whose first task waits for the other directory's first task to start
+        CountDownLatch started = new CountDownLatch(2);
+        boolean[] overlapped = {true};
+        for (int stripe = 0; stripe < 2; stripe++) {
+            pm.setIoExecutor(stripe,new ThreadPoolExecutor(1,1,0,TimeUnit.SECONDS,new LinkedBlockingQueue<>()) {
+                @Override
+                protected void beforeExecute(Thread thread, Runnable task) {
+                    started.countDown();
+                    try {
+                        overlapped[0] &= started.await(5,TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException e) {
+                        overlapped[0] = false;
+                    }
+                }
+            });
+        }
+        //one document in each directory
+        URI[] uris = new URI[2];
+        for (int i = 0; uris[0] == null || uris[1] == null; i++) {
+            URI uri = URI.create("http://edu.yu.cs/com1320/project/parallel" + i);
+            uris[Math.floorMod(uri.toString().hashCode(),2)] = uri;
+        }
+        DocumentStoreImpl store = new DocumentStoreImpl(pm);
+        for (URI uri : uris) {
+            store.putDocument(new ByteArrayInputStream(this.txt1.getBytes()),uri, DocumentStore.DocumentFormat.TXT);
+        }
+        store.setMaxDocumentCount(0);
+        assertTrue(overlapped[0],"the two evictions should have been written at the same time");
+        assertTrue(TestUtils.uriToFile(dirs.get(0),uris[0]).exists() && TestUtils.uriToFile(dirs.get(1),uris[1]).exists(),"both files should be written once the eviction returns");
+        assertEquals(this.txt1,store.getDocument(uris[0]).getDocumentTxt());
+        assertEquals(this.txt1,store.getDocument(uris[1]).getDocumentTxt());
+    }
+
+    @Test
+    public void documentWhoseEvictionFailedStaysInMemory() throws Exception {
+        DocumentStoreImpl store = new DocumentStoreImpl(this.baseDir);
+        store.putDocument(new ByteArrayInputStream(this.txt1.getBytes()),this.uri1, DocumentStore.DocumentFormat.TXT);
+        //a directory with something in it where the file goes makes its write fail
+        File blocked = TestUtils.uriToFile(this.baseDir, this.uri1);
+        blocked.mkdirs();
+        new File(blocked, "blocker").createNewFile();
+        store.setMaxDocumentCount(0);
+        assertEquals(this.txt1, store.getDocument(this.uri1).getDocumentTxt(), "a document whose file could not be written should not be lost");
+        TestUtils.deleteTree(blocked);
+        blocked.delete();
+        store.setMaxDocumentCount(0);
+        assertTrue(blocked.isFile(), "the document should be written once it is moved to disk again");
+        assertEquals(this.txt1, store.getDocument(this.uri1).getDocumentTxt());
+    }
+
+    @Test
+    public void documentWhoseCheckpointWriteFailedIsWrittenWhenEvicted() throws Exception {
+        DocumentStoreImpl store = new DocumentStoreImpl(this.baseDir);
+        store.putDocument(new ByteArrayInputStream(this.txt1.getBytes()),this.uri1, DocumentStore.DocumentFormat.TXT);
+        //the first checkpoint writes into the staging directory of generation 1
+        File blocked = TestUtils.uriToFile(new File(this.baseDir, ".staging-1"), this.uri1);
+        blocked.mkdirs();
+        new File(blocked, "blocker").createNewFile();
+        assertThrows(IOException.class, store::checkpoint);
+        TestUtils.deleteTree(blocked);
+        blocked.delete();
+        //the failed write must not have marked the document as being on disk, or it would be dropped from memory without a write
+        store.setMaxDocumentCount(0);
+        assertEquals(this.txt1, store.getDocument(this.uri1).getDocumentTxt());
+    }
+
+    @Test
+    public void corruptDocumentOnDiskIsReported() throws IOException {
+        DocumentStoreImpl store = new DocumentStoreImpl(this.baseDir);
+        store.putDocument(new ByteArrayInputStream(this.txt1.getBytes()),this.uri1, DocumentStore.DocumentFormat.TXT);
+        store.setMaxDocumentCount(0);
+        File file = TestUtils.uriToFile(this.baseDir,this.uri1);
+        byte[] data = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(),Arrays.copyOf(data,data.length - 20));
+        UncheckedIOException e = assertThrows(UncheckedIOException.class,() -> store.getDocument(this.uri1));
+        assertTrue(e.getCause() instanceof CorruptDocumentException);
+        assertTrue(file.exists(),"a corrupt document should be left on disk");
+    }
+}
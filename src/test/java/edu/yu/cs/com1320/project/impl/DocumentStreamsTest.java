@@ -0,0 +1,116 @@
+package edu.yu.cs.com1320.project.impl;
+
+import edu.yu.cs.com1320.project.DocumentStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DocumentStreamsTest {
+
+    private File baseDir;
+    private File logFile;
+    private URI uri1;
+    private URI uri2;
+    private byte[] data;
+
+    @BeforeEach
+    public void init() throws Exception {
+        this.baseDir = Files.createTempDirectory("blobs").toFile();
+        this.logFile = new File(this.baseDir, "wal.log");
+        this.uri1 = new URI("http://edu.yu.cs/com1320/project/doc1");
+        this.uri2 = new URI("http://edu.yu.cs/com1320/project/doc2");
+        this.data = new byte[200000];
+        for (int i = 0; i < this.data.length; i++) {
+            this.data[i] = (byte)(i * 31);
+        }
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        TestUtils.deleteTree(this.baseDir);
+        this.baseDir.delete();
+    }
+
+    private DocumentStoreImpl open() throws Exception {
+        DocumentPersistenceManager pm = new DocumentPersistenceManager(this.baseDir);
+        pm.setBlobThreshold(1000);
+        return new DocumentStoreImpl(pm, new WriteAheadLog(this.logFile, WriteAheadLog.SyncPolicy.OS, 0));
+    }
+
+    private void put(DocumentStore store, byte[] bytes, URI uri) throws Exception {
+        store.putDocument(new ByteArrayInputStream(bytes), uri, DocumentStore.DocumentFormat.BINARY);
+    }
+
+    private File[] getBlobFiles() {
+        File[] blobs = new File(this.baseDir, "blobs").listFiles();
+        return blobs == null ? new File[0] : blobs;
+    }
+
+    @Test
+    public void blobIsStreamedFromItsFile() throws Exception {
+        DocumentStoreImpl store = this.open();
+        this.put(store, this.data, this.uri1);
+        this.put(store, new byte[]{1, 2, 3}, this.uri2);
+        assertEquals(1, this.getBlobFiles().length, "only the Document over the threshold should be a blob");
+        assertEquals(new DocumentImpl(this.uri1, this.data).hashCode(), store.getDocument(this.uri1).hashCode());
+        DocumentStreams streams = new DocumentStreams(store);
+        try (InputStream in = streams.openStream(this.uri1)) {
+            assertArrayEquals(this.data, in.readAllBytes());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(this.data.length, streams.transferTo(this.uri1, Channels.newChannel(out)));
+        assertArrayEquals(this.data, out.toByteArray());
+        out.reset();
+        assertEquals(3, streams.transferTo(this.uri2, Channels.newChannel(out)));
+        assertArrayEquals(new byte[]{1, 2, 3}, out.toByteArray());
+        assertNull(streams.openStream(new URI("http://edu.yu.cs/com1320/project/none")));
+    }
+
+    @Test
+    public void blobIsNotCountedAgainstMemoryLimits() throws Exception {
+        DocumentStoreImpl store = this.open();
+        store.setMaxDocumentBytes(100);
+        this.put(store, new byte[]{1, 2, 3}, this.uri2);
+        this.put(store, this.data, this.uri1);
+        assertFalse(TestUtils.uriToFile(this.baseDir, this.uri2).exists(), "putting a blob should not move other Documents to disk");
+        assertFalse(TestUtils.uriToFile(this.baseDir, this.uri1).exists(), "a blob should never be moved to disk");
+        store.undo();
+        assertNull(store.getDocument(this.uri1));
+        this.put(store, this.data, this.uri2);
+        store.undo();
+        assertArrayEquals(new byte[]{1, 2, 3}, store.getDocument(this.uri2).getDocumentBinaryData(), "undo should restore the Document the blob replaced");
+    }
+
+    @Test
+    public void blobsAreRecoveredFromTheLog() throws Exception {
+        DocumentStoreImpl store = this.open();
+        this.put(store, this.data, this.uri1);
+        DocumentStoreImpl recovered = this.open();
+        assertArrayEquals(this.data, recovered.getDocument(this.uri1).getDocumentBinaryData());
+        assertEquals(1, this.getBlobFiles().length, "replaying the put should re-link the blob file, not copy it");
+        assertEquals(store.getDocument(this.uri1).hashCode(), recovered.getDocument(this.uri1).hashCode());
+    }
+
+    @Test
+    public void checkpointReclaimsReplacedBlobs() throws Exception {
+        DocumentStoreImpl store = this.open();
+        this.put(store, this.data, this.uri1);
+        this.data[0]++;
+        this.put(store, this.data, this.uri1);
+        assertEquals(2, this.getBlobFiles().length, "the replaced blob is kept while the put can still be undone");
+        new Checkpointer(store).checkpoint();
+        assertEquals(1, this.getBlobFiles().length);
+        DocumentStoreImpl restarted = this.open();
+        assertArrayEquals(this.data, restarted.getDocument(this.uri1).getDocumentBinaryData());
+    }
+}
@@ -0,0 +1,45 @@
+package edu.yu.cs.com1320.project.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdAllocatorTest {
+
+    @Test
+    public void idsAreDenseAndValuesInterned() throws Exception {
+        IdAllocator<URI> ids = new IdAllocator<>();
+        URI uri1 = new URI("http://edu.yu.cs/com1320/project/doc1");
+        URI uri2 = new URI("http://edu.yu.cs/com1320/project/doc2");
+        assertEquals(-1, ids.find(uri1));
+        assertEquals(0, ids.getId(uri1));
+        assertEquals(1, ids.getId(uri2));
+        URI copy = new URI("http://edu.yu.cs/com1320/project/doc1");
+        assertEquals(0, ids.getId(copy));
+        assertSame(uri1, ids.get(0), "the first instance of a value should be the one handed back");
+        assertEquals(2, ids.size());
+        assertThrows(IllegalArgumentException.class, () -> ids.get(2));
+        assertThrows(IllegalArgumentException.class, () -> ids.getId(null));
+    }
+
+    @Test
+    public void freedIdsAreReused() throws Exception {
+        IdAllocator<URI> ids = new IdAllocator<>();
+        URI uri1 = new URI("http://edu.yu.cs/com1320/project/doc1");
+        URI uri2 = new URI("http://edu.yu.cs/com1320/project/doc2");
+        URI uri3 = new URI("http://edu.yu.cs/com1320/project/doc3");
+        ids.getId(uri1);
+        ids.getId(uri2);
+        assertTrue(ids.free(uri1));
+        assertFalse(ids.free(uri1));
+        assertEquals(-1, ids.find(uri1));
+        assertThrows(IllegalArgumentException.class, () -> ids.get(0));
+        assertEquals(1, ids.size());
+        assertEquals(0, ids.getId(uri3), "the freed id should be given out before a new one");
+        assertEquals(2, ids.getId(uri1));
+        assertSame(uri3, ids.get(0));
+        assertEquals(3, ids.size());
+    }
+}
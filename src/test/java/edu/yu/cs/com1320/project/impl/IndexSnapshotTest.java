@@ -0,0 +1,146 @@
+package edu.yu.cs.com1320.project.impl;
+
+import edu.yu.cs.com1320.project.Document;
+import edu.yu.cs.com1320.project.DocumentStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndexSnapshotTest {
+
+    private File baseDir;
+    private File logFile;
+    private URI uri1;
+    private String txt1;
+    private URI uri2;
+    private String txt2;
+    private URI uri3;
+    private String txt3;
+
+    @BeforeEach
+    public void init() throws Exception {
+        this.baseDir = Files.createTempDirectory("snapshot").toFile();
+        this.logFile = new File(this.baseDir, "wal.log");
+        this.uri1 = new URI("http://edu.yu.cs/com1320/project/doc1");
+        this.txt1 = "This doc1 plain text string Computer Headphones plain plain";
+        this.uri2 = new URI("http://edu.yu.cs/com1320/project/doc2");
+        this.txt2 = "Text doc2 plain String";
+        this.uri3 = new URI("http://edu.yu.cs/com1320/project/doc3");
+        this.txt3 = "This is the text of doc3";
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        TestUtils.deleteTree(this.baseDir);
+        this.baseDir.delete();
+    }
+
+    private DocumentStoreImpl openWithLog() throws Exception {
+        return new DocumentStoreImpl(new DocumentPersistenceManager(this.baseDir), new WriteAheadLog(this.logFile, WriteAheadLog.SyncPolicy.OS, 0));
+    }
+
+    private void put(DocumentStore store, String txt, URI uri) throws Exception {
+        store.putDocument(new ByteArrayInputStream(txt.getBytes()), uri, DocumentStore.DocumentFormat.TXT);
+    }
+
+    @Test
+    public void restartFromCheckpoint() throws Exception {
+        DocumentStoreImpl store = new DocumentStoreImpl(this.baseDir);
+        this.put(store, this.txt1, this.uri1);
+        this.put(store, this.txt2, this.uri2);
+        this.put(store, this.txt3, this.uri3);
+        store.setMaxDocumentCount(2);
+        new Checkpointer(store).checkpoint();
+        DocumentStoreImpl restarted = new DocumentStoreImpl(this.baseDir);
+        List<Document> results = restarted.search("plain");
+        assertEquals(2, results.size());
+        assertEquals(this.txt1, results.get(0).getDocumentTxt(), "ranking should use the counts from the snapshot");
+        assertEquals(this.txt2, results.get(1).getDocumentTxt());
+        assertEquals(this.txt3, restarted.getDocument(this.uri3).getDocumentTxt());
+        assertEquals(1, restarted.searchByPrefix("doc3").size());
+    }
+
+    @Test
+    public void checkpointIsAnUndoBarrier() throws Exception {
+        DocumentStoreImpl store = new DocumentStoreImpl(this.baseDir);
+        this.put(store, this.txt1, this.uri1);
+        new Checkpointer(store).checkpoint();
+        assertThrows(IllegalStateException.class, () -> store.undo());
+        assertEquals(this.txt1, store.getDocument(this.uri1).getDocumentTxt());
+    }
+
+    @Test
+    public void changesAfterCheckpointAreNotInSnapshot() throws Exception {
+        DocumentStoreImpl store = new DocumentStoreImpl(this.baseDir);
+        this.put(store, this.txt1, this.uri1);
+        this.put(store, this.txt2, this.uri2);
+        new Checkpointer(store).checkpoint();
+        //replace doc1 and push the new version to disk, and delete doc2, without checkpointing again
+        this.put(store, this.txt3, this.uri1);
+        store.setMaxDocumentCount(0);
+        store.deleteDocument(this.uri2);
+        DocumentStoreImpl restarted = new DocumentStoreImpl(this.baseDir);
+        assertEquals(this.txt1, restarted.getDocument(this.uri1).getDocumentTxt());
+        assertEquals(this.txt2, restarted.getDocument(this.uri2).getDocumentTxt());
+        assertTrue(restarted.search("doc3").isEmpty());
+    }
+
+    @Test
+    public void logIsReplayedOnTopOfCheckpoint() throws Exception {
+        DocumentStoreImpl store = this.openWithLog();
+        this.put(store, this.txt1, this.uri1);
+        this.put(store, this.txt2, this.uri2);
+        new Checkpointer(store).checkpoint();
+        this.put(store, this.txt3, this.uri1);
+        store.setMaxDocumentCount(1);
+        this.put(store, this.txt3, this.uri3);
+        store.deleteDocument(this.uri2);
+        DocumentStoreImpl recovered = this.openWithLog();
+        assertEquals(this.txt3, recovered.getDocument(this.uri1).getDocumentTxt());
+        assertNull(recovered.getDocument(this.uri2));
+        assertEquals(this.txt3, recovered.getDocument(this.uri3).getDocumentTxt());
+        assertTrue(recovered.search("headphones").isEmpty(), "words of the replaced version should be gone");
+        assertEquals(2, recovered.search("doc3").size());
+    }
+
+    @Test
+    public void logCoveredByCheckpointIsNotReplayed() throws Exception {
+        DocumentStoreImpl store = this.openWithLog();
+        this.put(store, this.txt1, this.uri1);
+        File copy = new File(this.baseDir, "wal.copy");
+        Files.copy(this.logFile.toPath(), copy.toPath());
+        new Checkpointer(store).checkpoint();
+        //as if the process died after writing the snapshot but before emptying the log
+        Files.copy(copy.toPath(), this.logFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        DocumentStoreImpl recovered = this.openWithLog();
+        assertEquals(this.txt1, recovered.getDocument(this.uri1).getDocumentTxt());
+        assertThrows(IllegalStateException.class, () -> recovered.undo());
+    }
+
+    @Test
+    public void checkpointWithStripedDirectories() throws Exception {
+        List<File> dirs = List.of(new File(this.baseDir, "disk0"), new File(this.baseDir, "disk1"));
+        DocumentStoreImpl store = new DocumentStoreImpl(new DocumentPersistenceManager(dirs));
+        this.put(store, this.txt1, this.uri1);
+        this.put(store, this.txt2, this.uri2);
+        this.put(store, this.txt3, this.uri3);
+        store.setMaxDocumentCount(1);
+        new Checkpointer(store).checkpoint();
+        store.deleteDocument(this.uri1);
+        store.setMaxDocumentCount(0);
+        new Checkpointer(store).checkpoint();
+        DocumentStoreImpl restarted = new DocumentStoreImpl(new DocumentPersistenceManager(dirs));
+        assertNull(restarted.getDocument(this.uri1));
+        assertEquals(this.txt2, restarted.getDocument(this.uri2).getDocumentTxt());
+        assertEquals(this.txt3, restarted.getDocument(this.uri3).getDocumentTxt());
+    }
+}
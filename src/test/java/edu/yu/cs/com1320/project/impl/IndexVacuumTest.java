@@ -0,0 +1,62 @@
+package edu.yu.cs.com1320.project.impl;
+
+import edu.yu.cs.com1320.project.Document;
+import edu.yu.cs.com1320.project.DocumentStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndexVacuumTest {
+
+    @Test
+    public void vacuumAfterBulkDeleteKeepsSearchResults() throws Exception {
+        DocumentStoreImpl store = new DocumentStoreImpl();
+        for (int i = 0; i < 200; i++) {
+            String txt = "common word" + (i % 5) + (i % 2 == 0 ? " even" : " odd");
+            store.putDocument(new ByteArrayInputStream(txt.getBytes()), new URI("http://edu.yu.cs/com1320/project/doc" + i), DocumentStore.DocumentFormat.TXT);
+        }
+        assertEquals(100, store.deleteAll("even").size());
+        List<Document> common = store.search("common");
+        List<Document> words = store.searchByPrefix("word");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            new IndexVacuum(store).vacuumAsync(executor).get(10, TimeUnit.SECONDS);
+        }
+        finally {
+            executor.shutdown();
+        }
+        assertEquals(common, store.search("common"));
+        assertEquals(words, store.searchByPrefix("word"));
+        assertTrue(store.search("even").isEmpty());
+        assertEquals(100, store.search("odd").size());
+    }
+
+    @Test
+    public void documentsDeletedBeforeVacuumCanStillBeUndone() throws Exception {
+        DocumentStoreImpl store = new DocumentStoreImpl();
+        URI kept = new URI("http://edu.yu.cs/com1320/project/kept");
+        URI deleted = new URI("http://edu.yu.cs/com1320/project/deleted");
+        store.putDocument(new ByteArrayInputStream("common kept kept".getBytes()), kept, DocumentStore.DocumentFormat.TXT);
+        store.putDocument(new ByteArrayInputStream("common gone gone gone".getBytes()), deleted, DocumentStore.DocumentFormat.TXT);
+        store.deleteDocument(deleted);
+        //the deleted Document's words are dropped from the store's dictionary, but the Document held for undo keeps its own ids
+        store.vacuum();
+        assertEquals(2, store.getDocument(kept).wordCount("kept"));
+        store.undo();
+        assertEquals(3, store.search("gone").get(0).wordCount("gone"));
+        assertEquals(2, store.search("common").size());
+    }
+
+    @Test
+    public void nullArgumentsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new IndexVacuum(null));
+        assertThrows(IllegalArgumentException.class, () -> new IndexVacuum(new DocumentStoreImpl()).vacuumAsync(null));
+    }
+}
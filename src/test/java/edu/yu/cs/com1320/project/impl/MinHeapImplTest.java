@@ -0,0 +1,57 @@
+package edu.yu.cs.com1320.project.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MinHeapImplTest {
+
+    private static final class Entry implements Comparable<Entry> {
+
+        private String name;
+        private int priority;
+
+        Entry (String name, int priority) {
+            this.name = name;
+            this.priority = priority;
+        }
+
+        @Override
+        public boolean equals (Object o) {
+            return o instanceof Entry && this.name.equals(((Entry)o).name);
+        }
+
+        @Override
+        public int hashCode () {
+            return this.name.hashCode();
+        }
+
+        @Override
+        public int compareTo (Entry other) {
+            return Integer.compare(this.priority, other.priority);
+        }
+    }
+
+    @Test
+    public void reHeapifyFindsElementsThroughTheSideTable() {
+        MinHeapImpl<Entry> heap = new MinHeapImpl<>();
+        Entry[] entries = new Entry[100];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = new Entry("e" + i, 1000 - i);
+            heap.insert(entries[i]);
+        }
+        entries[50].priority = -1;
+        heap.reHeapify(new Entry("e50", 0));
+        assertTrue(heap.contains(new Entry("e7", 0)));
+        assertSame(entries[50], heap.remove());
+        assertFalse(heap.contains(new Entry("e50", 0)));
+        assertThrows(NoSuchElementException.class, () -> heap.reHeapify(new Entry("e50", 0)));
+        for (int i = entries.length - 1; i >= 0; i--) {
+            if (i != 50) {
+                assertSame(entries[i], heap.remove());
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package edu.yu.cs.com1320.project.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PostingListTest {
+
+    private void assertSameContents(TreeMap<Integer, Integer> expected, PostingList postings) {
+        assertEquals(expected.size(), postings.size());
+        TreeMap<Integer, Integer> actual = new TreeMap<>();
+        int[] previous = {-1};
+        postings.forEach((id, count) -> {
+            assertTrue(id > previous[0], "ids should be visited in ascending order");
+            previous[0] = id;
+            actual.put(id, count);
+        });
+        assertEquals(expected, actual);
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), postings.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void matchesASortedMapUnderRandomChanges() {
+        Random random = new Random(42);
+        PostingList postings = new PostingList();
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        for (int i = 0; i < 20000; i++) {
+            int id = random.nextInt(3000);
+            if (random.nextInt(4) == 0) {
+                assertEquals(expected.remove(id) != null, postings.remove(id));
+            }
+            else {
+                int count = 1 + random.nextInt(300);
+                expected.put(id, count);
+                postings.put(id, count);
+            }
+        }
+        this.assertSameContents(expected, postings);
+        assertEquals(0, postings.get(5000));
+        postings.compact();
+        this.assertSameContents(expected, postings);
+        postings.clear();
+        assertTrue(postings.isEmpty());
+        assertFalse(postings.remove(1));
+    }
+
+    @Test
+    public void densePostingsAreCompressed() {
+        PostingList postings = new PostingList();
+        for (int id = 0; id < 100000; id++) {
+            postings.put(id, 1);
+        }
+        postings.compact();
+        assertEquals(100000, postings.size());
+        assertEquals(200000, postings.getEncodedSize(), "a dense list should take one byte per delta and one per count");
+        assertThrows(IllegalArgumentException.class, () -> postings.put(1, 0));
+    }
+
+    @Test
+    public void topKMatchesTheFullRanking() {
+        Random random = new Random(7);
+        PostingList postings = new PostingList();
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        for (int i = 0; i < 5000; i++) {
+            int id = random.nextInt(2000);
+            int count = 1 + random.nextInt(i < 4000 ? 50 : 500);
+            expected.put(id, count);
+            postings.put(id, count);
+        }
+        for (int k : new int[]{0, 1, 10, 200, 5000}) {
+            TopRanks top = new TopRanks(k, postings.size());
+            postings.addTop(top);
+            int[] ids = expected.keySet().stream()
+                    .sorted((a, b) -> expected.get(a).equals(expected.get(b)) ? a - b : expected.get(b) - expected.get(a))
+                    .limit(k).mapToInt(Integer::intValue).toArray();
+            assertArrayEquals(ids, top.getIds(), "k = " + k);
+        }
+    }
+}
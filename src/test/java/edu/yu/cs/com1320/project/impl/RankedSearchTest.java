@@ -0,0 +1,63 @@
+package edu.yu.cs.com1320.project.impl;
+
+import edu.yu.cs.com1320.project.Document;
+import edu.yu.cs.com1320.project.DocumentStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RankedSearchTest {
+
+    private DocumentStoreImpl store;
+    private RankedSearch search;
+
+    @BeforeEach
+    public void init() throws Exception {
+        this.store = new DocumentStoreImpl();
+        this.search = new RankedSearch(this.store);
+        for (int i = 0; i < 300; i++) {
+            StringBuilder txt = new StringBuilder();
+            for (int j = 0; j <= i % 17; j++) {
+                txt.append("apple ");
+            }
+            txt.append(i % 2 == 0 ? "apricot" : "banana");
+            this.store.putDocument(new ByteArrayInputStream(txt.toString().getBytes()), this.uri(i), DocumentStore.DocumentFormat.TXT);
+        }
+    }
+
+    private URI uri(int i) throws Exception {
+        return new URI("http://edu.yu.cs/com1320/project/doc" + i);
+    }
+
+    @Test
+    public void topKIsThePrefixOfTheFullRanking() {
+        List<Document> all = this.store.search("apple");
+        assertEquals(300, all.size());
+        assertEquals(all.subList(0, 10), this.search.search("apple", 10));
+        assertEquals(all, this.search.search("apple", 1000));
+        assertEquals(0, this.search.search("apple", 0).size());
+        assertEquals(0, this.search.search("cherry", 5).size());
+    }
+
+    @Test
+    public void topKByPrefixIsThePrefixOfTheFullRanking() {
+        List<Document> all = this.store.searchByPrefix("ap");
+        assertEquals(300, all.size());
+        assertEquals(all.subList(0, 25), this.search.searchByPrefix("ap", 25));
+        Document best = this.search.searchByPrefix("ap", 1).get(0);
+        assertEquals(17, best.wordCount("apple"));
+        assertEquals(1, best.wordCount("apricot"));
+    }
+
+    @Test
+    public void nullArgumentsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new RankedSearch(null));
+        assertThrows(IllegalArgumentException.class, () -> this.search.search(null, 1));
+        assertThrows(IllegalArgumentException.class, () -> this.search.searchByPrefix("a", -1));
+    }
+}
@@ -0,0 +1,111 @@
+package edu.yu.cs.com1320.project.impl;
+
+import edu.yu.cs.com1320.project.Document;
+import edu.yu.cs.com1320.project.DocumentStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SlabAllocatorTest {
+
+    private File baseDir;
+    private URI uri1;
+    private URI uri2;
+
+    @BeforeEach
+    public void init() throws Exception {
+        this.baseDir = Files.createTempDirectory("slabs").toFile();
+        this.uri1 = new URI("http://edu.yu.cs/com1320/project/doc1");
+        this.uri2 = new URI("http://edu.yu.cs/com1320/project/doc2");
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        TestUtils.deleteTree(this.baseDir);
+        this.baseDir.delete();
+    }
+
+    @Test
+    public void blocksComeFromSlabsWithinBudget() {
+        SlabAllocator slabs = new SlabAllocator(4096, 1024);
+        ByteBuffer small = slabs.allocate(100);
+        assertTrue(small.isDirect());
+        assertEquals(128, small.capacity(), "a block should be the smallest power of two that fits");
+        assertEquals(1024, slabs.getAllocated(), "one slab should have been allocated");
+        slabs.allocate(120);
+        assertEquals(1024, slabs.getAllocated(), "the second block should come from the same slab");
+        ByteBuffer large = slabs.allocate(2048);
+        assertEquals(3072, slabs.getAllocated());
+        assertNull(slabs.allocate(2000), "a buffer over the budget should not be allocated");
+        slabs.free(large);
+        assertEquals(1024, slabs.getAllocated());
+        slabs.free(small);
+        assertSame(small, slabs.allocate(128), "the freed block should be handed out again");
+        assertEquals(1024, slabs.getAllocated(), "a freed block should be reused");
+    }
+
+    @Test
+    public void documentContentsOffHeap() {
+        SlabAllocator slabs = new SlabAllocator(1 << 20, 1 << 16);
+        String txt = "Text of an off heap document, with non-ASCII éè characters";
+        DocumentImpl doc = new DocumentImpl(this.uri1, txt);
+        int hash = doc.hashCode();
+        int bytes = doc.getByteCount();
+        assertTrue(doc.moveOffHeap(slabs));
+        assertEquals(txt, doc.getDocumentTxt());
+        assertNull(doc.getDocumentBinaryData());
+        assertEquals(hash, doc.hashCode());
+        assertEquals(bytes, doc.getByteCount());
+        assertEquals(1, doc.wordCount("document"));
+        byte[] data = new byte[70000];
+        data[69999] = 7;
+        DocumentImpl binary = new DocumentImpl(this.uri2, data);
+        assertTrue(binary.moveOffHeap(slabs), "a document larger than a slab should get a buffer of its own");
+        assertArrayEquals(data, binary.getDocumentBinaryData());
+        assertNull(binary.getDocumentTxt());
+        assertFalse(new DocumentImpl(this.uri2, new byte[1 << 20]).moveOffHeap(slabs), "a document over the budget should stay on the heap");
+    }
+
+    @Test
+    public void offHeapDocumentsCompareInPlace() {
+        SlabAllocator slabs = new SlabAllocator(1 << 20, 1 << 16);
+        String txt = "Text of an off heap document, with non-ASCII éè characters";
+        DocumentImpl doc = new DocumentImpl(this.uri1, txt);
+        DocumentImpl same = new DocumentImpl(this.uri1, txt);
+        DocumentImpl onHeap = new DocumentImpl(this.uri1, txt);
+        assertEquals(txt.getBytes(StandardCharsets.UTF_8).length, doc.getByteCount(), "the byte count should be of the UTF-8 text");
+        assertTrue(doc.moveOffHeap(slabs));
+        assertTrue(same.moveOffHeap(slabs));
+        assertEquals(doc, same);
+        assertEquals(doc, onHeap);
+        assertEquals(onHeap.hashCode(), doc.hashCode());
+        DocumentImpl other = new DocumentImpl(this.uri1, txt + " changed");
+        assertTrue(other.moveOffHeap(slabs));
+        assertNotEquals(doc, other);
+        assertNotEquals(doc, null);
+    }
+
+    @Test
+    public void storeKeepsContentsOffHeap() throws Exception {
+        DocumentPersistenceManager pm = new DocumentPersistenceManager(this.baseDir);
+        pm.setOffHeapBytes(1 << 22);
+        DocumentStoreImpl store = new DocumentStoreImpl(pm);
+        store.putDocument(new ByteArrayInputStream("plain text of doc1 plain".getBytes()), this.uri1, DocumentStore.DocumentFormat.TXT);
+        store.putDocument(new ByteArrayInputStream("plain text of doc2".getBytes()), this.uri2, DocumentStore.DocumentFormat.TXT);
+        assertTrue(pm.getOffHeapSize() > 0);
+        store.setMaxDocumentBytes(30);
+        assertEquals(1, store.search("doc1").size());
+        Document doc2 = store.getDocument(this.uri2);
+        assertEquals("plain text of doc2", doc2.getDocumentTxt(), "a document read back from disk should be readable off the heap too");
+        assertEquals(2, store.search("plain").size());
+    }
+}
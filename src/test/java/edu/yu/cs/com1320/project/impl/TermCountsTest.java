@@ -0,0 +1,47 @@
+package edu.yu.cs.com1320.project.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TermCountsTest {
+
+    @Test
+    public void intIntMapCountsWithoutBoxing() {
+        IntIntMap map = new IntIntMap();
+        for (int i = 0; i < 1000; i++) {
+            map.add(i * 7, 1);
+            map.add(i * 7, i);
+        }
+        assertEquals(1000, map.size());
+        assertEquals(11, map.get(70));
+        assertEquals(0, map.get(71), "a missing key should have the value 0");
+        assertEquals(1000, map.getKeys().length);
+        assertThrows(IllegalArgumentException.class, () -> map.add(-1, 1));
+    }
+
+    @Test
+    public void countsAreLookedUpById() {
+        TermDictionary dictionary = new TermDictionary();
+        Map<String, Integer> wordToCount = new HashMap<>();
+        wordToCount.put("ZEBRA", 2);
+        wordToCount.put("APPLE", 5);
+        wordToCount.put("MANGO", 1);
+        TermCounts counts = new TermCounts(dictionary, wordToCount);
+        assertEquals(3, counts.size());
+        assertEquals(5, counts.get("APPLE"));
+        assertEquals(2, counts.get(dictionary.find("ZEBRA")));
+        assertEquals(0, counts.get("KIWI"));
+        dictionary.getId("KIWI");
+        assertEquals(0, counts.get("KIWI"), "a word in the dictionary but not in the Document should have the count 0");
+        assertEquals(wordToCount, counts.toMap());
+        Set<String> words = counts.getWords();
+        assertEquals(wordToCount.keySet(), words);
+        assertFalse(words.contains("KIWI"));
+        assertThrows(UnsupportedOperationException.class, () -> words.add("KIWI"));
+    }
+}
@@ -0,0 +1,53 @@
+package edu.yu.cs.com1320.project.impl;
+
+import edu.yu.cs.com1320.project.Document;
+import edu.yu.cs.com1320.project.DocumentStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TermDictionaryTest {
+
+    @Test
+    public void idsAreDenseAndStable() {
+        TermDictionary dictionary = new TermDictionary();
+        assertEquals(0, dictionary.getId("HELLO"));
+        assertEquals(1, dictionary.getId("WORLD"));
+        assertEquals(0, dictionary.getId(new StringBuilder("HEL").append("LO")), "a term is found by its characters, whatever the CharSequence");
+        assertEquals(1, dictionary.find("WORLD"));
+        assertEquals(-1, dictionary.find("MISSING"));
+        assertEquals("WORLD", dictionary.getTerm(1));
+        assertEquals(2, dictionary.size());
+        assertThrows(IllegalArgumentException.class, () -> dictionary.getTerm(2));
+    }
+
+    @Test
+    public void growsPastItsInitialCapacity() {
+        TermDictionary dictionary = new TermDictionary();
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, dictionary.getId("TERM" + i));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, dictionary.find("TERM" + i));
+            assertEquals("TERM" + i, dictionary.getTerm(i));
+        }
+        assertEquals(10000, dictionary.size());
+    }
+
+    @Test
+    public void wordsAreSharedAcrossDocumentsOfAStore() throws Exception {
+        DocumentStoreImpl store = new DocumentStoreImpl();
+        URI uri1 = new URI("http://edu.yu.cs/com1320/project/doc1");
+        URI uri2 = new URI("http://edu.yu.cs/com1320/project/doc2");
+        store.putDocument(new ByteArrayInputStream("shared words here".getBytes()), uri1, DocumentStore.DocumentFormat.TXT);
+        store.putDocument(new ByteArrayInputStream("Shared WORDS there".getBytes()), uri2, DocumentStore.DocumentFormat.TXT);
+        Document doc1 = store.getDocument(uri1);
+        Document doc2 = store.getDocument(uri2);
+        String word1 = doc1.getWords().stream().filter("SHARED"::equals).findFirst().get();
+        String word2 = doc2.getWords().stream().filter("SHARED"::equals).findFirst().get();
+        assertSame(word1, word2, "both Documents should refer to the dictionary's one copy of the word");
+    }
+}
@@ -0,0 +1,55 @@
+package edu.yu.cs.com1320.project.impl;
+
+import edu.yu.cs.com1320.project.DocumentStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenizerTest {
+
+    @Test
+    public void wordsAreCountedAcrossChunks() {
+        Tokenizer tokenizer = new Tokenizer();
+        tokenizer.add("The qu").add("ick fox, the").add(" don't\n").add("FOX 42");
+        Map<String, Integer> counts = tokenizer.getCounts();
+        assertEquals(Map.of("THE", 2, "QUICK", 1, "FOX", 1, "DONTFOX", 1, "42", 1), counts,
+                "punctuation and line breaks are dropped, not treated as spaces");
+    }
+
+    @Test
+    public void textWithoutWordsCountsTheEmptyWord() {
+        assertEquals(Map.of("", 1), new Tokenizer().add(" !? ").getCounts());
+    }
+
+    @Test
+    public void readMatchesAddingTheWholeText() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            builder.append("word").append(i % 7).append(i % 3 == 0 ? " " : "  ,");
+        }
+        String txt = builder.toString();
+        StringBuilder text = new StringBuilder();
+        Map<String, Integer> counts = new Tokenizer().read(new StringReader(txt), text).getCounts();
+        assertEquals(txt, text.toString());
+        assertEquals(new Tokenizer().add(txt).getCounts(), counts);
+        assertEquals(new DocumentImpl(new URI("http://edu.yu.cs/com1320/project/doc1"), txt).getWordMap(), counts);
+    }
+
+    @Test
+    public void textIsDecodedAsUtf8() throws Exception {
+        DocumentStore store = new DocumentStoreImpl();
+        URI uri = new URI("http://edu.yu.cs/com1320/project/doc1");
+        String txt = "café naïve résumé café";
+        store.putDocument(new ByteArrayInputStream(txt.getBytes(StandardCharsets.UTF_8)), uri, DocumentStore.DocumentFormat.TXT);
+        assertEquals(txt, store.getDocument(uri).getDocumentTxt());
+        assertEquals(2, store.getDocument(uri).wordCount("caf"));
+        assertEquals(Set.of("CAF", "NAVE", "RSUM"), store.getDocument(uri).getWords());
+    }
+}
@@ -0,0 +1,50 @@
+package edu.yu.cs.com1320.project.impl;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TopRanksTest {
+
+    @Test
+    public void keepsTheHighestCountsWithTiesToTheLowestIds() {
+        TopRanks top = new TopRanks(3, 0);
+        int[] counts = {5, 9, 1, 9, 5, 7, 2, 9};
+        for (int id = counts.length - 1; id >= 0; id--) {
+            top.add(id, counts[id]);
+        }
+        assertArrayEquals(new int[]{1, 3, 7}, top.getIds());
+        assertEquals(9, top.getThreshold());
+    }
+
+    @Test
+    public void thresholdIsZeroUntilKPairsAreAdded() {
+        TopRanks top = new TopRanks(2, 10);
+        assertEquals(0, top.getThreshold());
+        top.add(4, 3);
+        assertEquals(0, top.getThreshold());
+        top.add(1, 6);
+        assertEquals(3, top.getThreshold());
+        top.add(2, 5);
+        assertEquals(5, top.getThreshold());
+        assertArrayEquals(new int[]{1, 2}, top.getIds());
+    }
+
+    @Test
+    public void zeroKeepsNothing() {
+        TopRanks top = new TopRanks(0, 10);
+        top.add(1, 1);
+        assertEquals(0, top.getIds().length);
+        assertEquals(Integer.MAX_VALUE, top.getThreshold());
+        assertThrows(IllegalArgumentException.class, () -> new TopRanks(-1, 0));
+    }
+
+    @Test
+    public void manyPairsAreCutBackToK() {
+        TopRanks top = new TopRanks(5, 0);
+        for (int id = 0; id < 10000; id++) {
+            top.add(id, id % 1000);
+        }
+        assertArrayEquals(new int[]{999, 1999, 2999, 3999, 4999}, top.getIds());
+    }
+}
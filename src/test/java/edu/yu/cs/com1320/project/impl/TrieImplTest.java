@@ -3,8 +3,11 @@ package edu.yu.cs.com1320.project.impl;
 import edu.yu.cs.com1320.project.impl.TrieImpl;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -104,6 +107,170 @@ public class TrieImplTest {
         assertEquals(11,ones.get(1),"second element should be 11");
     }
 
+    @Test
+    public void testCountsFollowTheirValues(){
+        TrieImpl<Integer> ti = new TrieImpl<>();
+        ti.put("one",1,5);
+        ti.put("one",2,7);
+        ti.put("oneAndDone",2,3);
+        //sorting must not separate values from their counts
+        ti.getAllSorted("one",this.getComparator());
+        Map<String,Map<Integer,Integer>> counts = new HashMap<>();
+        ti.forEach(counts::put);
+        assertEquals(Map.of(1,5,2,7),counts.get("ONE"));
+        assertEquals(List.of(2,1),ti.getTopWithPrefixRanked("on",Integer.MAX_VALUE),"prefix ranks should use the total count");
+        ti.delete("one",1);
+        counts.clear();
+        ti.forEach(counts::put);
+        assertEquals(Map.of(2,7),counts.get("ONE"));
+    }
+
+    @Test
+    public void testRankedByCountsInPostings(){
+        TrieImpl<Integer> ti = new TrieImpl<>();
+        ti.put("one",10,2);
+        ti.put("one",20,9);
+        ti.put("one",30,2);
+        ti.put("onerous",10,8);
+        ti.put("only",40,1);
+        assertEquals(List.of(20,10,30),ti.getTopRanked("ONE",Integer.MAX_VALUE),"ties should keep the order the values were first put");
+        assertEquals(List.of(10,20,30,40),ti.getTopWithPrefixRanked("on",Integer.MAX_VALUE),"prefix ranks should use the total count");
+        assertTrue(ti.getTopRanked("",Integer.MAX_VALUE).isEmpty());
+        assertTrue(ti.getTopWithPrefixRanked("two",Integer.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void testNodesGrowAndShrinkWithFanOut(){
+        TrieImpl<Integer> ti = new TrieImpl<>();
+        String chars = "Z0A9MB1YC8XD2WE7VF3UG6TH4SI5RJQKPLON";
+        for(int i = 0; i < chars.length(); i++){
+            ti.put("k" + chars.charAt(i),i);
+            ti.put("k" + chars.charAt(i) + "x",i);
+            for(int j = 0; j <= i; j++){
+                assertEquals(List.of(j),ti.getTopRanked("k" + chars.charAt(j),Integer.MAX_VALUE),"lost a link after adding link " + i);
+            }
+        }
+        List<String> keys = new ArrayList<>();
+        ti.forEach((key,counts) -> keys.add(key));
+        List<String> expected = new ArrayList<>();
+        chars.chars().sorted().forEach(c -> {
+            expected.add("K" + (char)c);
+            expected.add("K" + (char)c + "X");
+        });
+        assertEquals(expected,keys,"keys should be visited in order");
+        for(int i = 0; i < chars.length(); i++){
+            ti.deleteAllWithPrefix("k" + chars.charAt(i));
+            for(int j = i + 1; j < chars.length(); j++){
+                assertEquals(List.of(j),ti.getTopRanked("k" + chars.charAt(j) + "x",Integer.MAX_VALUE),"lost a link after removing link " + i);
+            }
+            assertTrue(ti.getTopRanked("k" + chars.charAt(i),Integer.MAX_VALUE).isEmpty());
+        }
+        assertTrue(ti.getTopWithPrefixRanked("k",Integer.MAX_VALUE).isEmpty());
+        ti.put("k5",5);
+        assertEquals(List.of(5),ti.getTopWithPrefixRanked("K",Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testKeysEndingInsideACompressedPath(){
+        TrieImpl<Integer> ti = new TrieImpl<>();
+        ti.put("television",1);
+        ti.put("telephone",2);
+        ti.put("tele",3);
+        ti.put("te",4);
+        assertTrue(ti.getTopRanked("telev",Integer.MAX_VALUE).isEmpty(),"a key ending inside a path should not match exactly");
+        assertTrue(ti.getTopRanked("televisions",Integer.MAX_VALUE).isEmpty());
+        assertTrue(ti.getTopRanked("telegram",Integer.MAX_VALUE).isEmpty());
+        assertEquals(List.of(1),ti.getTopRanked("TELEVISION",Integer.MAX_VALUE));
+        assertEquals(List.of(1),ti.getTopWithPrefixRanked("telev",Integer.MAX_VALUE));
+        assertEquals(List.of(1,2,3),ti.getTopWithPrefixRanked("tel",Integer.MAX_VALUE));
+        assertNull(ti.delete("telev",1));
+        assertTrue(ti.deleteAll("telepho").isEmpty());
+        List<String> keys = new ArrayList<>();
+        ti.forEach((key,counts) -> keys.add(key));
+        assertEquals(List.of("TE","TELE","TELEPHONE","TELEVISION"),keys);
+        assertEquals(Set.of(2),ti.deleteAllWithPrefix("telep"));
+        assertEquals(List.of(1,3,4),ti.getTopWithPrefixRanked("t",Integer.MAX_VALUE));
+        ti.put("telepathy",5);
+        assertEquals(List.of(5),ti.getTopRanked("telepathy",Integer.MAX_VALUE));
+        assertEquals(Set.of(1,3,5),ti.deleteAllWithPrefix("tel"));
+        assertEquals(List.of(4),ti.getTopWithPrefixRanked("t",Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testDeepTrieAndRepeatedValues(){
+        TrieImpl<Integer> ti = new TrieImpl<>();
+        StringBuilder key = new StringBuilder();
+        for(int i = 0; i < 5000; i++){
+            key.append('a');
+            ti.put(key.toString(),i % 3);
+        }
+        assertEquals(List.of(2,1,0),ti.getAllWithPrefixSorted("aaa",getComparator()),"each value should be returned once");
+        int[] keys = {0};
+        ti.forEach((k,counts) -> keys[0]++);
+        assertEquals(5000,keys[0]);
+        assertEquals(1,ti.delete(key.toString(),1),"the longest key holds 4999 % 3");
+        assertEquals(Set.of(0,1,2),ti.deleteAllWithPrefix("a"));
+        assertTrue(ti.getAllWithPrefixSorted("a",getComparator()).isEmpty());
+    }
+
+    @Test
+    public void testDeletionFreesEmptiedNodes(){
+        TrieImpl<Integer> ti = getTestTrie();
+        assertEquals(5,ti.getNodeCount(),"root, ONE, ONEANDDONE, TWO and TWOANDMORE");
+        ti.deleteAll("oneAndDone");
+        assertEquals(4,ti.getNodeCount());
+        ti.deleteAll("two");
+        assertEquals(3,ti.getNodeCount(),"TWO should be merged into TWOANDMORE");
+        assertEquals(List.of(27895,23456),ti.getAllSorted("TWOANDMORE",getComparator()));
+        assertTrue(ti.getAllSorted("two",getComparator()).isEmpty());
+        ti.delete("twoAndMore",23456);
+        ti.delete("twoAndMore",27895);
+        assertEquals(2,ti.getNodeCount());
+        ti.deleteAllWithPrefix("o");
+        assertEquals(1,ti.getNodeCount());
+        ti.put("one",1);
+        assertEquals(List.of(1),ti.getAllSorted("one",getComparator()));
+    }
+
+    @Test
+    public void testVacuumKeepsContents(){
+        TrieImpl<Integer> ti = new TrieImpl<>();
+        for(int i = 0; i < 1000; i++){
+            ti.put("word" + (i % 10),i,1 + i % 7);
+        }
+        for(int i = 0; i < 1000; i += 3){
+            ti.delete("word" + (i % 10),i);
+        }
+        Map<String,Map<Integer,Integer>> counts = new HashMap<>();
+        ti.forEach(counts::put);
+        List<Integer> ranked = ti.getTopWithPrefixRanked("word",Integer.MAX_VALUE);
+        int nodes = ti.getNodeCount();
+        ti.vacuum();
+        Map<String,Map<Integer,Integer>> vacuumed = new HashMap<>();
+        ti.forEach(vacuumed::put);
+        assertEquals(counts,vacuumed);
+        assertEquals(ranked,ti.getTopWithPrefixRanked("word",Integer.MAX_VALUE));
+        assertEquals(nodes,ti.getNodeCount());
+    }
+
+    @Test
+    public void testVacuumDropsTermsWithoutValues(){
+        TermDictionary dictionary = new TermDictionary();
+        TrieImpl<Integer> ti = new TrieImpl<>(new IdAllocator<>(),dictionary);
+        int one = dictionary.getId("ONE");
+        dictionary.getId("TWO");
+        ti.put("ONE",1);
+        ti.put("TWO",2);
+        ti.delete("TWO",2);
+        ti.vacuum();
+        assertEquals(1,ti.getDictionary().size());
+        assertEquals(-1,ti.getDictionary().find("TWO"));
+        assertEquals(0,ti.getDictionary().find("ONE"));
+        //the old dictionary is left as it was, for anything still holding its ids
+        assertEquals("ONE",dictionary.getTerm(one));
+        assertEquals(2,dictionary.size());
+    }
+
     private Comparator<Integer> getComparator(){
         return new Comparator<Integer>() {
             @Override
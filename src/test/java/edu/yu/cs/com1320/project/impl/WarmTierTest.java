@@ -0,0 +1,125 @@
+package edu.yu.cs.com1320.project.impl;
+
+import edu.yu.cs.com1320.project.Document;
+import edu.yu.cs.com1320.project.DocumentStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WarmTierTest {
+
+    private File baseDir;
+    private URI uri1;
+    private String txt1;
+    private URI uri2;
+    private String txt2;
+    private URI uri3;
+    private String txt3;
+
+    @BeforeEach
+    public void init() throws Exception {
+        this.baseDir = Files.createTempDirectory("warm").toFile();
+        this.uri1 = new URI("http://edu.yu.cs/com1320/project/doc1");
+        this.txt1 = "This doc1 plain text string Computer Headphones plain plain ".repeat(20);
+        this.uri2 = new URI("http://edu.yu.cs/com1320/project/doc2");
+        this.txt2 = "Text doc2 plain String ".repeat(20);
+        this.uri3 = new URI("http://edu.yu.cs/com1320/project/doc3");
+        this.txt3 = "This is the text of doc3 ".repeat(20);
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        TestUtils.deleteTree(this.baseDir);
+        this.baseDir.delete();
+    }
+
+    private void put(DocumentStore store, String txt, URI uri) throws Exception {
+        store.putDocument(new ByteArrayInputStream(txt.getBytes()), uri, DocumentStore.DocumentFormat.TXT);
+    }
+
+    @Test
+    public void documentsStayInMemoryWhileTheyFit() throws Exception {
+        DocumentPersistenceManager pm = new DocumentPersistenceManager(this.baseDir);
+        pm.setWarmTierBytes(1 << 20);
+        pm.serialize(this.uri1, new DocumentImpl(this.uri1, this.txt1));
+        pm.serialize(this.uri2, new DocumentImpl(this.uri2, this.txt2));
+        assertFalse(TestUtils.uriToFile(this.baseDir, this.uri1).exists(), "a document in the warm tier should not be written to disk");
+        assertTrue(pm.getWarmTierSize() > 0);
+        assertTrue(pm.getWarmTierSize() < this.txt1.length(), "the warm tier should hold documents compressed");
+        assertEquals(this.txt1, pm.deserialize(this.uri1).getDocumentTxt());
+        assertEquals(this.txt2, pm.deserializeAsync(this.uri2).join().getDocumentTxt());
+        assertTrue(pm.delete(this.uri2));
+        assertEquals(0, pm.getWarmTierSize(), "reading and deleting should take documents out of the warm tier");
+        assertNull(pm.deserialize(this.uri2));
+    }
+
+    @Test
+    public void spilledFilesAreWhatSerializeWouldWrite() throws Exception {
+        DocumentPersistenceManager direct = new DocumentPersistenceManager(new File(this.baseDir, "direct"));
+        DocumentPersistenceManager warm = new DocumentPersistenceManager(new File(this.baseDir, "warm"));
+        for (DocumentPersistenceManager pm : new DocumentPersistenceManager[]{direct, warm}) {
+            pm.setCompressionLevel(9);
+            pm.setCompressionThreshold(1000);
+            pm.trainCompressionDictionary(List.of(new DocumentImpl(this.uri3, this.txt3)));
+        }
+        warm.setWarmTierBytes(1 << 20);
+        DocumentImpl small = new DocumentImpl(this.uri2, "small doc2");
+        DocumentImpl big = new DocumentImpl(this.uri1, this.txt1);
+        direct.serialize(this.uri1, big);
+        direct.serialize(this.uri2, small);
+        warm.serialize(this.uri1, big);
+        warm.serialize(this.uri2, small);
+        warm.setWarmTierBytes(0);
+        for (URI uri : new URI[]{this.uri1, this.uri2}) {
+            assertArrayEquals(Files.readAllBytes(TestUtils.uriToFile(new File(this.baseDir, "direct"), uri).toPath()),
+                    Files.readAllBytes(TestUtils.uriToFile(new File(this.baseDir, "warm"), uri).toPath()), "the warm tier should honor the compression settings");
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedSpillToDisk() throws Exception {
+        DocumentPersistenceManager pm = new DocumentPersistenceManager(this.baseDir);
+        pm.setWarmTierBytes(1 << 20);
+        pm.serialize(this.uri1, new DocumentImpl(this.uri1, this.txt1));
+        pm.serialize(this.uri2, new DocumentImpl(this.uri2, this.txt2));
+        pm.serialize(this.uri3, new DocumentImpl(this.uri3, this.txt3));
+        long size = pm.getWarmTierSize();
+        pm.setWarmTierBytes(size - 1);
+        assertTrue(TestUtils.uriToFile(this.baseDir, this.uri1).exists(), "the least recently used document should have been written to disk");
+        assertFalse(TestUtils.uriToFile(this.baseDir, this.uri3).exists());
+        pm.setWarmTierBytes(0);
+        assertTrue(TestUtils.uriToFile(this.baseDir, this.uri3).exists(), "turning the warm tier off should write everything to disk");
+        assertEquals(this.txt2, pm.deserialize(this.uri2).getDocumentTxt());
+    }
+
+    @Test
+    public void storeWithWarmTier() throws Exception {
+        DocumentPersistenceManager pm = new DocumentPersistenceManager(this.baseDir);
+        pm.setWarmTierBytes(1 << 20);
+        DocumentStoreImpl store = new DocumentStoreImpl(pm);
+        this.put(store, this.txt1, this.uri1);
+        this.put(store, this.txt2, this.uri2);
+        this.put(store, this.txt3, this.uri3);
+        store.setMaxDocumentCount(1);
+        assertFalse(TestUtils.uriToFile(this.baseDir, this.uri1).exists());
+        assertEquals(2, store.search("plain").size());
+        assertEquals(this.txt3, store.getDocument(this.uri3).getDocumentTxt());
+        new Checkpointer(store).checkpoint();
+        assertEquals(0, pm.getWarmTierSize(), "a checkpoint should write the warm tier to disk");
+        DocumentStoreImpl restarted = new DocumentStoreImpl(this.baseDir);
+        for (Document doc : restarted.searchByPrefix("doc")) {
+            assertNotNull(doc.getDocumentTxt());
+        }
+        assertEquals(3, restarted.searchByPrefix("doc").size());
+        assertEquals(this.txt1, restarted.getDocument(this.uri1).getDocumentTxt());
+        assertEquals(this.txt2, restarted.getDocument(this.uri2).getDocumentTxt());
+    }
+}
@@ -0,0 +1,113 @@
+package edu.yu.cs.com1320.project.impl;
+
+import edu.yu.cs.com1320.project.DocumentStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteAheadLogTest {
+
+    private File baseDir;
+    private File logFile;
+    private URI uri1;
+    private String txt1;
+    private URI uri2;
+    private String txt2;
+    private URI uri3;
+    private String txt3;
+
+    @BeforeEach
+    public void init() throws Exception {
+        this.baseDir = Files.createTempDirectory("wal").toFile();
+        this.logFile = new File(this.baseDir, "wal.log");
+        this.uri1 = new URI("http://edu.yu.cs/com1320/project/doc1");
+        this.txt1 = "This doc1 plain text string Computer Headphones";
+        this.uri2 = new URI("http://edu.yu.cs/com1320/project/doc2");
+        this.txt2 = "Text doc2 plain String";
+        this.uri3 = new URI("http://edu.yu.cs/com1320/project/doc3");
+        this.txt3 = "This is the text of doc3";
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        TestUtils.deleteTree(this.baseDir);
+        this.baseDir.delete();
+    }
+
+    private DocumentStoreImpl open(WriteAheadLog.SyncPolicy policy) throws Exception {
+        return new DocumentStoreImpl(new DocumentPersistenceManager(this.baseDir), new WriteAheadLog(this.logFile, policy, 10));
+    }
+
+    private void put(DocumentStore store, String txt, URI uri) throws Exception {
+        store.putDocument(new ByteArrayInputStream(txt.getBytes()), uri, DocumentStore.DocumentFormat.TXT);
+    }
+
+    @Test
+    public void recoverPutsAndDeletes() throws Exception {
+        DocumentStoreImpl store = this.open(WriteAheadLog.SyncPolicy.EVERY_OPERATION);
+        this.put(store, this.txt1, this.uri1);
+        this.put(store, this.txt2, this.uri2);
+        this.put(store, this.txt3, this.uri3);
+        store.deleteDocument(this.uri2);
+        store.deleteAll("doc3");
+        //a new log on the same file, as after a crash
+        DocumentStoreImpl recovered = this.open(WriteAheadLog.SyncPolicy.OS);
+        assertEquals(this.txt1, recovered.getDocument(this.uri1).getDocumentTxt());
+        assertNull(recovered.getDocument(this.uri2));
+        assertNull(recovered.getDocument(this.uri3));
+        assertEquals(1, recovered.search("plain").size());
+    }
+
+    @Test
+    public void recoverUndo() throws Exception {
+        DocumentStoreImpl store = this.open(WriteAheadLog.SyncPolicy.INTERVAL);
+        this.put(store, this.txt1, this.uri1);
+        this.put(store, this.txt2, this.uri2);
+        this.put(store, this.txt3, this.uri1);
+        store.deleteAllWithPrefix("doc");
+        store.undo();
+        store.undo(this.uri1);
+        DocumentStoreImpl recovered = this.open(WriteAheadLog.SyncPolicy.INTERVAL);
+        assertEquals(this.txt1, recovered.getDocument(this.uri1).getDocumentTxt());
+        assertEquals(this.txt2, recovered.getDocument(this.uri2).getDocumentTxt());
+        //the command stack was rebuilt, so undo keeps working after recovery
+        recovered.undo();
+        assertNull(recovered.getDocument(this.uri2));
+    }
+
+    @Test
+    public void tornRecordIsDiscarded() throws Exception {
+        DocumentStoreImpl store = this.open(WriteAheadLog.SyncPolicy.EVERY_OPERATION);
+        this.put(store, this.txt1, this.uri1);
+        this.put(store, this.txt2, this.uri2);
+        long length = this.logFile.length();
+        try (FileOutputStream out = new FileOutputStream(this.logFile, true)) {
+            out.write(new byte[]{0, 0, 1, 0, 7, 7, 7, 7, 1, 2, 3});
+        }
+        DocumentStoreImpl recovered = this.open(WriteAheadLog.SyncPolicy.OS);
+        assertEquals(length, this.logFile.length(), "torn record should have been truncated");
+        assertNotNull(recovered.getDocument(this.uri1));
+        assertNotNull(recovered.getDocument(this.uri2));
+    }
+
+    @Test
+    public void evictedDocumentsAreNotResurrected() throws Exception {
+        DocumentStoreImpl store = this.open(WriteAheadLog.SyncPolicy.OS);
+        store.setMaxDocumentCount(1);
+        this.put(store, this.txt1, this.uri1);
+        this.put(store, this.txt2, this.uri2);
+        //doc1 was written to disk; after recovery the delete must win over the stale file
+        DocumentStoreImpl recovered = this.open(WriteAheadLog.SyncPolicy.OS);
+        recovered.deleteDocument(this.uri1);
+        assertNull(recovered.getDocument(this.uri1));
+        assertTrue(recovered.search("doc1").isEmpty());
+    }
+}